@@ -7,6 +7,92 @@ local pending_messages = {}  -- messages to send once connected
 local connection_state = "disconnected"  -- track connection state manually
 local session_id = nil  -- our session ID for HTTP requests
 
+-- Binary game protocol ("ttt.bin.v1"), requested at connect when M.binary is set.
+-- The server falls back to JSON if it does not offer it.
+M.binary = false
+local BINARY_PROTOCOL = "ttt.bin.v1"
+local match_handles = {}   -- matchId -> numeric handle (from binary "match" frames)
+local handle_matches = {}  -- handle -> matchId
+local RESULTS = { [0] = "ongoing", "X_wins", "O_wins", "draw", "forfeit:X", "forfeit:O" }
+local STATUSES = { [0] = "waiting", "active", "finished", "closed" }
+-- Server stamps every JSON push with a per-session "seq"; sending the last one
+-- on register resumes the stream instead of replaying the whole backlog.
+-- Binary frames carry no seq; on a binary socket connection_confirmed carries
+-- the "lastSeq" to resume from, and replayed binary frames are full state.
+local last_seq = nil
+-- Highest state version seen per match; an older push that arrives late is dropped
+local match_versions = {}
+-- Open matches pushed by the server while subscribed to the lobby
+local lobby_subscribed = false
+local lobby_matches = {}
+
+local function apply_lobby(obj)
+  if obj.t == "lobby" then
+    lobby_matches = obj.matches or {}
+  elseif obj.op == "created" and obj.match then
+    table.insert(lobby_matches, obj.match)
+  elseif obj.op == "removed" then
+    for i, match in ipairs(lobby_matches) do
+      if match.matchId == obj.matchId then
+        table.remove(lobby_matches, i)
+        break
+      end
+    end
+  end
+end
+
+local function u32(s, i)
+  local a, b, c, d = string.byte(s, i, i + 3)
+  return ((a * 256 + b) * 256 + c) * 256 + d
+end
+
+-- Cell i is bit (8 - i) of a 9-bit mask
+local function mask_to_board(x_mask, o_mask)
+  local cells = {}
+  for i = 0, 8 do
+    local bit = 2 ^ (8 - i)
+    if math.floor(x_mask / bit) % 2 == 1 then
+      cells[#cells + 1] = "X"
+    elseif math.floor(o_mask / bit) % 2 == 1 then
+      cells[#cells + 1] = "O"
+    else
+      cells[#cells + 1] = "."
+    end
+  end
+  return table.concat(cells)
+end
+
+-- Decode a server frame into the same shape as the JSON messages
+local function decode_binary(msg)
+  local op = string.byte(msg, 1)
+  local handle = u32(msg, 2)
+  local match_id = handle_matches[handle]
+  if op == 0x01 or op == 0x02 then
+    local b1, b2, b3 = string.byte(msg, 6, 8)
+    local packed = (b1 * 256 + b2) * 256 + b3
+    local x_mask = packed % 512
+    local o_mask = math.floor(packed / 512) % 512
+    local next_o = math.floor(packed / 262144) % 2 == 1
+    local status = STATUSES[math.floor(packed / 524288) % 4]
+    local result = RESULTS[math.floor(packed / 2097152) % 8]
+    return {
+      t = op == 0x01 and "state" or "over",
+      match = match_id, handle = handle,
+      board = mask_to_board(x_mask, o_mask),
+      next = next_o and "O" or "X",
+      status = status, result = result
+    }
+  elseif op == 0x03 then
+    match_id = string.sub(msg, 7)
+    match_handles[match_id] = handle
+    handle_matches[handle] = match_id
+    return { t = "match", match = match_id, handle = handle, seat = string.byte(msg, 6) }
+  elseif op == 0x04 then
+    return { t = "move_rejected", match = match_id, handle = handle, cell = string.byte(msg, 6) }
+  end
+  error("Unknown binary opcode " .. tostring(op))
+end
+
 local function cb(self, conn, data)
   print("WS callback:", data.event, data.code, data.message)
   if data.event == websocket.EVENT_CONNECTED then
@@ -27,6 +113,10 @@ local function cb(self, conn, data)
   elseif data.event == websocket.EVENT_MESSAGE then
     print("Raw message received:", data.message)
     local ok, obj = pcall(function() 
+      -- Binary protocol frames start with an opcode below 0x20, JSON with '{'
+      if string.byte(data.message, 1) < 0x20 then
+        return decode_binary(data.message)
+      end
       -- Enhanced JSON parsing with better error handling
       if json and json.decode then
         return json.decode(data.message)
@@ -69,6 +159,15 @@ local function cb(self, conn, data)
             parsed.message = extract_field("message")
             parsed.yourTurn = extract_field("yourTurn")
             parsed.serverVersion = extract_field("serverVersion")
+            -- Pushed gameplay frames ("state" / "over" / "match")
+            parsed.match = extract_field("match")
+            parsed.next = extract_field("next")
+            parsed.status = extract_field("status")
+            parsed.result = extract_field("result")
+            parsed.seq = tonumber(string.match(data.message, '"seq":(%d+)'))
+            parsed.lastSeq = tonumber(string.match(data.message, '"lastSeq":(%d+)'))
+            parsed.version = tonumber(string.match(data.message, '"version":(%d+)'))
+            parsed.seat = tonumber(string.match(data.message, '"seat":(%d+)'))
             
             print("Enhanced parsing - Type:", parsed.t, "MatchId:", parsed.matchId, "YourMark:", parsed.yourMark, "YourTurn:", parsed.yourTurn)
             return parsed
@@ -79,7 +178,38 @@ local function cb(self, conn, data)
     end)
     if ok then 
       print("Parsed message:", obj.t)
-      queue[#queue + 1] = obj 
+      if obj.seq or (obj.t == "connection_confirmed" and obj.lastSeq) then
+        -- Gameplay frames may overtake rate-limited background ones; keep the highest
+        local seq = tonumber(obj.seq or obj.lastSeq)
+        if seq and (not last_seq or seq > last_seq) then
+          last_seq = seq
+        end
+      end
+      local version = tonumber(obj.version)
+      local stale = false
+      if version and obj.match and (obj.t == "state" or obj.t == "over" or obj.t == "snapshot") then
+        local seen = match_versions[obj.match]
+        stale = seen ~= nil and version < seen
+        if not stale then
+          match_versions[obj.match] = version
+        end
+      end
+      if stale then
+        print("Dropping stale", obj.t, "version", version)
+      elseif obj.t == "snapshot" and obj.match then
+        -- Missed messages were no longer available; rebuild from the current match
+        queue[#queue + 1] = { t = "match", match = obj.match, seat = obj.seat, opponentName = obj.opponentName }
+        queue[#queue + 1] = {
+          t = obj.status == "finished" and "over" or "state",
+          match = obj.match, board = obj.board, next = obj.next,
+          status = obj.status, result = obj.result
+        }
+      else
+        if obj.t == "lobby" or obj.t == "lobby_delta" then
+          apply_lobby(obj)
+        end
+        queue[#queue + 1] = obj
+      end
     else 
       print("WS bad JSON:", data.message, "Error:", obj) 
     end
@@ -111,9 +241,15 @@ function M.connect(url)
     return 
   end
 
-  -- try the correct API: websocket.connect(url, callback)
-  print("Trying connect with callback...")
-  ws = try_connect(M.url, cb)
+  if M.binary then
+    print("Trying connect with binary subprotocol...")
+    ws = try_connect(M.url, { protocol = BINARY_PROTOCOL }, cb)
+  end
+  if not ws then
+    -- try the correct API: websocket.connect(url, callback)
+    print("Trying connect with callback...")
+    ws = try_connect(M.url, cb)
+  end
   if not ws then
     -- try with empty protocols table
     print("Trying connect with protocols table...")
@@ -279,6 +415,76 @@ function M.make_move(match_id, cell, callback)
   end, {["Content-Type"] = "application/json"}, request_body)
 end
 
+-- Bind this socket to our session so the server can push game state to it
+function M.register_session()
+  if not session_id then
+    print("No session ID to register")
+    return
+  end
+  if M.binary and ws and connection_state == "connected" then
+    -- REGISTER: 0x11, lastSeq (u64 big-endian, 0 = nothing to resume), session id
+    local seq = last_seq or 0
+    local bytes = {}
+    for i = 8, 1, -1 do
+      bytes[i] = seq % 256
+      seq = math.floor(seq / 256)
+    end
+    local frame = string.char(0x11, unpack(bytes)) .. session_id
+    websocket.send(ws, frame, { type = websocket.DATA_TYPE_BINARY })
+  else
+    local msg = { sessionId = session_id }
+    if last_seq then
+      -- Sent as a string so large numbers are never written in exponent form
+      msg.lastSeq = string.format("%d", last_seq)
+    end
+    M.send(msg)
+  end
+  if lobby_subscribed then
+    -- Subscriptions to the lobby do not survive a reconnect; the server sends a fresh list
+    M.send({ t = "lobby_subscribe", sessionId = session_id })
+  end
+end
+
+-- Have the server push the open-match list and then create/remove deltas
+-- ("lobby" / "lobby_delta" frames) instead of polling /api/matches
+function M.subscribe_lobby()
+  if not session_id then
+    print("No session ID to subscribe to the lobby")
+    return
+  end
+  lobby_subscribed = true
+  M.send({ t = "lobby_subscribe", sessionId = session_id })
+end
+
+function M.unsubscribe_lobby()
+  lobby_subscribed = false
+  lobby_matches = {}
+  M.send({ t = "lobby_unsubscribe" })
+end
+
+-- Current open matches from the lobby subscription
+function M.get_lobby_matches()
+  return lobby_matches
+end
+
+-- Submit a move over the socket; the new board arrives as a pushed "state"/"over" frame
+function M.send_move(match_id, cell)
+  if not match_id then
+    print("No match ID for move")
+    return
+  end
+  local handle = match_handles[match_id]
+  if handle and ws and connection_state == "connected" then
+    -- MOVE: 0x10, handle (u32 big-endian), cell
+    local frame = string.char(0x10,
+      math.floor(handle / 16777216) % 256, math.floor(handle / 65536) % 256,
+      math.floor(handle / 256) % 256, handle % 256, cell)
+    websocket.send(ws, frame, { type = websocket.DATA_TYPE_BINARY })
+    return
+  end
+  M.send({ t = "move", matchId = match_id, cell = cell })
+end
+
 function M.get_session_id()
   return session_id
 end
@@ -0,0 +1,195 @@
+package com.stanstate.ttt;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalescing last-activity recorder for player_sessions.last_heartbeat.
+ *
+ * Sends and registrations only put a timestamp into a concurrent map; any
+ * number of records for a session between two flushes collapse into one.
+ * Every activity.flushIntervalSeconds the sessions that changed are written
+ * as a single JDBC batch. DatabaseManager.cleanupDeadConnections flushes
+ * first, so the stale-session check sees the latest activity. Disconnects
+ * are queued the same way and written as 'disconnected' in the same flush.
+ */
+public class ActivityRecorder {
+    private static ActivityRecorder instance;
+
+    private final ConcurrentHashMap<String, Long> lastActivity = new ConcurrentHashMap<>();
+    // Sessions whose latest activity has not been written yet
+    private final ConcurrentHashMap<String, Long> unflushed = new ConcurrentHashMap<>();
+    // Sessions whose socket closed and whose row is not marked disconnected yet
+    private final Set<String> departed = ConcurrentHashMap.newKeySet();
+    private final DatabaseManager dbManager;
+    private final ScheduledExecutorService flushScheduler;
+    private volatile boolean stopped;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private volatile int lastFlushRows;
+    private volatile long lastFlushMillis;
+
+    private ActivityRecorder() {
+        this.dbManager = DatabaseManager.getInstance();
+        this.flushScheduler = ExecutorRegistry.getInstance().maintenance();
+        ExecutorRegistry.getInstance().onShutdown(ExecutorRegistry.Phase.PERSISTENCE, "ActivityRecorder", this::shutdown);
+        scheduleFlush();
+    }
+
+    public static synchronized ActivityRecorder getInstance() {
+        if (instance == null) {
+            instance = new ActivityRecorder();
+        }
+        return instance;
+    }
+
+    /**
+     * Note that the session was active just now. Never touches JDBC.
+     */
+    public void record(String sessionId) {
+        long now = System.currentTimeMillis();
+        lastActivity.put(sessionId, now);
+        unflushed.put(sessionId, now);
+        // Back before the flush: the queued disconnect no longer applies
+        departed.remove(sessionId);
+        recorded.incrementAndGet();
+    }
+
+    /**
+     * Last recorded activity (epoch millis), or null if none since startup.
+     */
+    public Long getLastActivity(String sessionId) {
+        return lastActivity.get(sessionId);
+    }
+
+    /**
+     * Session is gone; its last timestamp is still flushed if pending, but
+     * no longer marks it connected, and the next flush sets its row to
+     * 'disconnected'. Never touches JDBC, so it is safe on the selector
+     * thread. Synchronized with flush so a batch that still saw the session
+     * live commits before the disconnect is queued.
+     */
+    public synchronized void disconnected(String sessionId) {
+        lastActivity.remove(sessionId);
+        departed.add(sessionId);
+    }
+
+    private void scheduleFlush() {
+        int period = ServerConfig.getInstance().get(ServerConfig.ACTIVITY_FLUSH_INTERVAL_SECONDS);
+        flushScheduler.schedule(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                System.err.println("Activity flush failed: " + e.getMessage());
+            } finally {
+                if (!stopped && !flushScheduler.isShutdown()) {
+                    scheduleFlush();
+                }
+            }
+        }, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Write every session's latest activity since the last flush in one batch.
+     */
+    public synchronized void flush() {
+        List<Map.Entry<String, Long>> batch = new ArrayList<>();
+        List<Boolean> live = new ArrayList<>();
+        for (Map.Entry<String, Long> e : unflushed.entrySet()) {
+            batch.add(Map.entry(e.getKey(), e.getValue()));
+            live.add(lastActivity.containsKey(e.getKey()));
+        }
+        List<String> departedNow = new ArrayList<>();
+        for (String sessionId : departed) {
+            if (!lastActivity.containsKey(sessionId)) {
+                departedNow.add(sessionId);
+            }
+        }
+        if (batch.isEmpty() && departedNow.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                     "UPDATE player_sessions SET last_heartbeat = ?, " +
+                     "connection_status = CASE WHEN ? THEN 'connected' ELSE connection_status END " +
+                     "WHERE session_id = ? AND last_heartbeat <= ?");
+                 // After the activity batch, which leaves departed sessions' status alone
+                 PreparedStatement gone = conn.prepareStatement(
+                     "UPDATE player_sessions SET connection_status = 'disconnected' WHERE session_id = ?")) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Map.Entry<String, Long> e = batch.get(i);
+                    Timestamp at = new Timestamp(e.getValue());
+                    stmt.setTimestamp(1, at);
+                    // Departed sessions keep the status unregister gave them
+                    stmt.setBoolean(2, live.get(i));
+                    stmt.setString(3, e.getKey());
+                    stmt.setTimestamp(4, at);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                for (String sessionId : departedNow) {
+                    gone.setString(1, sessionId);
+                    gone.addBatch();
+                }
+                gone.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to flush session activity: " + e.getMessage());
+            // Entries stay in unflushed for the next tick
+            return;
+        }
+
+        // Keep entries that were recorded again while we were writing
+        for (Map.Entry<String, Long> e : batch) {
+            unflushed.remove(e.getKey(), e.getValue());
+        }
+        departed.removeAll(departedNow);
+        flushes.incrementAndGet();
+        rowsWritten.addAndGet(batch.size());
+        lastFlushRows = batch.size();
+        lastFlushMillis = System.currentTimeMillis() - start;
+    }
+
+    public Map<String, Object> getStats() {
+        long rows = rowsWritten.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedSessions", lastActivity.size());
+        stats.put("unflushedSessions", unflushed.size());
+        stats.put("pendingDisconnects", departed.size());
+        stats.put("recorded", recorded.get());
+        stats.put("rowsWritten", rows);
+        stats.put("flushes", flushes.get());
+        stats.put("coalescingRatio", rows > 0 ? (double) recorded.get() / rows : 0.0);
+        stats.put("lastFlushRows", lastFlushRows);
+        stats.put("lastFlushMillis", lastFlushMillis);
+        return stats;
+    }
+
+    // The scheduler is shared; stop rescheduling and write what is left
+    public void shutdown() {
+        stopped = true;
+        flush();
+    }
+}
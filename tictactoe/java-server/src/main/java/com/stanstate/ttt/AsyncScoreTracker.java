@@ -15,13 +15,14 @@ import java.util.*;
  * - Result: No database locks, no SQLITE_BUSY errors, client response time < 10ms
  */
 public class AsyncScoreTracker {
-    private static final int QUEUE_CAPACITY = 10000;  // Maximum pending scores
-    private static final int BATCH_SIZE = 10;         // Process scores in batches for efficiency
-    private static final int BATCH_TIMEOUT_MS = 100;  // Max wait time before processing batch
+    // Queue capacity (score.queueCapacity) is fixed at startup; batch size and
+    // timeout (score.batchSize / score.batchTimeoutMs) are re-read every batch
+    // so a config reload takes effect without restarting the writer
+    private final ServerConfig config;
     
     private final BlockingQueue<ScoreSubmission> scoreQueue;
     private final Thread writerThread;                 // Single writer thread for serialized database writes
-    private final ScheduledExecutorService scheduler;
+    private final ScheduledFuture<?> statsTask;       // On the shared maintenance scheduler
     private volatile boolean running = true;
     private final DatabaseManager dbManager;
     
@@ -65,24 +66,18 @@ public class AsyncScoreTracker {
     
     public AsyncScoreTracker(DatabaseManager dbManager) {
         this.dbManager = dbManager;
-        this.scoreQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
-        this.scheduler = Executors.newScheduledThreadPool(1, new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread t = new Thread(r, "ScoreBatcher");
-                t.setDaemon(false);
-                return t;
-            }
-        });
+        this.config = ServerConfig.getInstance();
+        this.scoreQueue = new LinkedBlockingQueue<>(config.get(ServerConfig.SCORE_QUEUE_CAPACITY));
+        ExecutorRegistry registry = ExecutorRegistry.getInstance();
         
         // Create single writer thread for serialized database writes
-        this.writerThread = new Thread(this::singleWriterLoop, "ScoreWriter-1");
-        this.writerThread.setDaemon(false);
+        this.writerThread = registry.thread("ScoreWriter-1", this::singleWriterLoop, false);
         this.writerThread.setPriority(Thread.NORM_PRIORITY - 1);
         this.writerThread.start();
         
         // Schedule periodic stats reporting
-        scheduler.scheduleAtFixedRate(this::logStatistics, 30, 30, TimeUnit.SECONDS);
+        this.statsTask = registry.maintenance().scheduleAtFixedRate(this::logStatistics, 30, 30, TimeUnit.SECONDS);
+        registry.onShutdown(ExecutorRegistry.Phase.PERSISTENCE, "AsyncScoreTracker", this::shutdown);
         
         System.out.println("AsyncScoreTracker initialized with SINGLE WRITER thread (serialized DB writes, no locks)");
     }
@@ -134,20 +129,21 @@ public class AsyncScoreTracker {
      * This prevents SQLite from getting SQLITE_BUSY errors and eliminates concurrency issues
      */
     private void singleWriterLoop() {
-        List<ScoreSubmission> batch = new ArrayList<>(BATCH_SIZE);
+        List<ScoreSubmission> batch = new ArrayList<>();
         
         while (running) {
             try {
                 batch.clear();
+                int batchSize = config.get(ServerConfig.SCORE_BATCH_SIZE);
                 
                 // Wait for first item with timeout (allows for periodic flushes)
-                ScoreSubmission first = scoreQueue.poll(BATCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                ScoreSubmission first = scoreQueue.poll(config.get(ServerConfig.SCORE_BATCH_TIMEOUT_MS), TimeUnit.MILLISECONDS);
                 
                 if (first != null) {
                     batch.add(first);
                     
-                    // Drain up to BATCH_SIZE-1 more items without blocking
-                    scoreQueue.drainTo(batch, BATCH_SIZE - 1);
+                    // Drain up to batchSize-1 more items without blocking
+                    scoreQueue.drainTo(batch, batchSize - 1);
                     
                     // Process the entire batch in this single thread (no concurrency)
                     processBatch(batch);
@@ -249,6 +245,9 @@ public class AsyncScoreTracker {
      * Graceful shutdown - waits for pending scores to be processed
      */
     public void shutdown() {
+        if (!running) {
+            return; // Already shut down (RestApiServer.stop and the registry both call this)
+        }
         System.out.println("AsyncScoreTracker shutting down... (pending scores: " + scoreQueue.size() + ")");
         running = false;
         
@@ -274,15 +273,7 @@ public class AsyncScoreTracker {
             Thread.currentThread().interrupt();
         }
         
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+        statsTask.cancel(false);
         
         System.out.println("AsyncScoreTracker shutdown complete. Final stats:");
         logStatistics();
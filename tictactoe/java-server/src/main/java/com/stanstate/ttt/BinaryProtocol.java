@@ -0,0 +1,134 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Compact binary game protocol, negotiated as the "ttt.bin.v1" WebSocket
+ * subprotocol. Clients that do not ask for it keep getting JSON.
+ *
+ * All integers are big-endian. A match is addressed by its 32-bit handle from
+ * GameStateCache instead of the UUID string.
+ *
+ * Server -> client:
+ *   STATE    0x01 handle:u32 packed:u24    (8 bytes)
+ *   OVER     0x02 handle:u32 packed:u24    (8 bytes)
+ *   MATCH    0x03 handle:u32 seat:u8 matchId:utf8   (sent once per match)
+ *   REJECTED 0x04 handle:u32 cell:u8
+ *
+ * Client -> server:
+ *   MOVE     0x10 handle:u32 cell:u8
+ *   REGISTER 0x11 lastSeq:u64 sessionId:utf8   (lastSeq 0: nothing to resume)
+ *
+ * packed (24 bits, high to low):
+ *   result:3 status:2 next:1 oMask:9 xMask:9
+ * Board masks use the same layout as TttRoom: cell i is bit (8 - i).
+ * result is a Bitboard outcome code (0 ongoing, 1 X_wins, 2 O_wins, 3 draw;
+ * 4/5 are reserved for forfeit:X/forfeit:O), status a GameState status code
+ * (0 waiting, 1 active, 2 finished, 3 closed).
+ *
+ * Binary frames carry no seq. A binary socket's connection_confirmed (JSON)
+ * has the session's "lastSeq" at registration, and JSON gameplay frames it
+ * still gets (snapshot, move_rejected) carry their "seq"; REGISTER sends the
+ * newest of those. Replayed STATE/OVER/MATCH frames are full state, so
+ * getting one again after a resume is harmless.
+ */
+public final class BinaryProtocol {
+    public static final String NAME = "ttt.bin.v1";
+
+    public static final byte OP_STATE = 0x01;
+    public static final byte OP_OVER = 0x02;
+    public static final byte OP_MATCH = 0x03;
+    public static final byte OP_REJECTED = 0x04;
+    public static final byte OP_MOVE = 0x10;
+    public static final byte OP_REGISTER = 0x11;
+
+    private static final List<String> STATUS_NAMES = List.of("waiting", "active", "finished", "closed");
+
+    private BinaryProtocol() {}
+
+    public static ByteBuffer encodeState(int handle, int xMask, int oMask, boolean oNext, int status, int result) {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.put(status == GameStateCache.GameState.FINISHED ? OP_OVER : OP_STATE);
+        buf.putInt(handle);
+        int packed = ((result & 0x7) << 21)
+            | ((status & 0x3) << 19)
+            | (oNext ? 1 << 18 : 0)
+            | ((oMask & 0x1FF) << 9)
+            | (xMask & 0x1FF);
+        buf.put((byte) (packed >>> 16));
+        buf.put((byte) (packed >>> 8));
+        buf.put((byte) packed);
+        buf.flip();
+        return buf;
+    }
+
+    public static ByteBuffer encodeMatch(int handle, int seat, String matchId) {
+        byte[] id = matchId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(6 + id.length);
+        buf.put(OP_MATCH).putInt(handle).put((byte) seat).put(id);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Binary form of a logged or held JSON gameplay frame (state, over,
+     * match), for replaying it to a binary socket. Null if the type has no
+     * binary form or its match has left the cache; send the JSON instead.
+     */
+    public static ByteBuffer fromJson(String json) {
+        JsonObject message;
+        try {
+            message = JsonParser.parseString(json).getAsJsonObject();
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (!message.has("t") || !message.has("match")) {
+            return null;
+        }
+        String type = message.get("t").getAsString();
+        GameStateCache.GameState game = GameStateCache.getInstance().getGame(message.get("match").getAsString());
+        if (game == null) {
+            return null;
+        }
+        if ("match".equals(type)) {
+            return encodeMatch(game.handle, message.get("seat").getAsInt(), game.matchId);
+        }
+        if (!"state".equals(type) && !"over".equals(type)) {
+            return null;
+        }
+        String board = message.get("board").getAsString();
+        int xMask = 0;
+        int oMask = 0;
+        for (int i = 0; i < 9; i++) {
+            if (board.charAt(i) == 'X') {
+                xMask |= Bitboard.bit(i);
+            } else if (board.charAt(i) == 'O') {
+                oMask |= Bitboard.bit(i);
+            }
+        }
+        int result = 0;
+        for (int code = 0; code <= Bitboard.DRAW; code++) {
+            if (Bitboard.resultName(code).equals(message.get("result").getAsString())) {
+                result = code;
+            }
+        }
+        if ("over".equals(type)) {
+            // Same next bit as a live OVER frame: the side that moved last
+            return encodeState(game.handle, xMask, oMask, Bitboard.xToMove(xMask, oMask),
+                GameStateCache.GameState.FINISHED, result);
+        }
+        int status = Math.max(0, STATUS_NAMES.indexOf(message.get("status").getAsString()));
+        return encodeState(game.handle, xMask, oMask, "O".equals(message.get("next").getAsString()), status, result);
+    }
+
+    public static ByteBuffer encodeRejected(int handle, int cell) {
+        ByteBuffer buf = ByteBuffer.allocate(6);
+        buf.put(OP_REJECTED).putInt(handle).put((byte) cell);
+        buf.flip();
+        return buf;
+    }
+}
@@ -0,0 +1,109 @@
+package com.stanstate.ttt;
+
+import java.util.Arrays;
+
+/**
+ * Tic-tac-toe positions as two 9-bit masks (same layout as TttRoom: cell i
+ * is bit 8 - i) and a precomputed outcome for every reachable position.
+ *
+ * The table is indexed by (xMask << 9) | oMask, so looking up the outcome of
+ * a position is one array read. It is filled once by walking every legal game
+ * from the empty board (5478 reachable positions); every other index holds
+ * {@link #UNREACHABLE}. Outcome codes are the result codes of the binary
+ * protocol.
+ */
+public final class Bitboard {
+    public static final int ONGOING = 0;
+    public static final int X_WINS = 1;
+    public static final int O_WINS = 2;
+    public static final int DRAW = 3;
+    public static final int UNREACHABLE = -1;
+
+    public static final int FULL = 0b111111111;
+
+    private static final int[] WINS = {
+        0b111000000, 0b000111000, 0b000000111,
+        0b100100100, 0b010010010, 0b001001001,
+        0b100010001, 0b001010100
+    };
+
+    private static final String[] RESULT_NAMES = {"ongoing", "X_wins", "O_wins", "draw"};
+
+    private static final byte[] OUTCOMES = new byte[1 << 18];
+    private static int reachable;
+
+    static {
+        Arrays.fill(OUTCOMES, (byte) UNREACHABLE);
+        fill(0, 0, true);
+    }
+
+    private Bitboard() {}
+
+    private static void fill(int xMask, int oMask, boolean xToMove) {
+        int index = (xMask << 9) | oMask;
+        if (OUTCOMES[index] != UNREACHABLE) {
+            return;
+        }
+        int outcome = evaluate(xMask, oMask);
+        OUTCOMES[index] = (byte) outcome;
+        reachable++;
+        if (outcome != ONGOING) {
+            return;
+        }
+        int free = ~(xMask | oMask) & FULL;
+        while (free != 0) {
+            int bit = free & -free;
+            free &= free - 1;
+            if (xToMove) {
+                fill(xMask | bit, oMask, false);
+            } else {
+                fill(xMask, oMask | bit, true);
+            }
+        }
+    }
+
+    // Only used to build the table
+    private static int evaluate(int xMask, int oMask) {
+        for (int w : WINS) {
+            if ((xMask & w) == w) return X_WINS;
+            if ((oMask & w) == w) return O_WINS;
+        }
+        return (xMask | oMask) == FULL ? DRAW : ONGOING;
+    }
+
+    public static int bit(int cell) {
+        return 1 << (8 - cell);
+    }
+
+    /**
+     * Outcome code of a position, or {@link #UNREACHABLE} if no legal game
+     * gets there.
+     */
+    public static int outcome(int xMask, int oMask) {
+        return OUTCOMES[(xMask << 9) | oMask];
+    }
+
+    /** X moves whenever both marks have been placed equally often. */
+    public static boolean xToMove(int xMask, int oMask) {
+        return Integer.bitCount(xMask) == Integer.bitCount(oMask);
+    }
+
+    public static int reachablePositions() {
+        return reachable;
+    }
+
+    // Rendering for the JSON/REST edge and the database
+
+    public static String render(int xMask, int oMask) {
+        char[] cells = new char[9];
+        for (int i = 0; i < 9; i++) {
+            int bit = bit(i);
+            cells[i] = (xMask & bit) != 0 ? 'X' : (oMask & bit) != 0 ? 'O' : '.';
+        }
+        return new String(cells);
+    }
+
+    public static String resultName(int outcome) {
+        return outcome >= 0 && outcome < RESULT_NAMES.length ? RESULT_NAMES[outcome] : "ongoing";
+    }
+}
@@ -0,0 +1,109 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.CompressionExtension;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Serialize-once fan-out for WebSocket messages.
+ *
+ * The message is turned into a string once and framed once per distinct
+ * Draft (the same way WebSocketServer.broadcast does); every recipient then
+ * gets the same frame list. Sockets that negotiated compression get their own
+ * frames built from the same string. Cost per extra recipient is just the
+ * socket write, so it works the same for two seats or a room full of
+ * spectators.
+ */
+public final class Broadcaster {
+    private Broadcaster() {}
+
+    public static int broadcast(JsonObject message, Collection<WebSocket> recipients) {
+        return broadcast(message.toString(), recipients, OutboundBackpressure.coalesceKey(message));
+    }
+
+    /**
+     * Send one text message to every open recipient.
+     *
+     * @return number of sockets the frame was handed to (parked writes on
+     *         backed-up sockets are not counted)
+     */
+    public static int broadcast(String text, Collection<WebSocket> recipients) {
+        return broadcast(text, recipients, null);
+    }
+
+    /**
+     * @param coalesceKey messages with the same key supersede each other on
+     *        backed-up sockets (see OutboundBackpressure); null to always send
+     */
+    public static int broadcast(String text, Collection<WebSocket> recipients, String coalesceKey) {
+        return broadcast(recipients, d -> d.createFrames(text, false),
+            (conn, write) -> OutboundBackpressure.send(conn, coalesceKey, write));
+    }
+
+    /**
+     * Send one text message in the background lane: still framed once, but
+     * each socket's write waits for a token like any other background frame.
+     *
+     * @param dropped called with a socket whose write was still queued when
+     *        it closed; null for live-only messages
+     * @return number of sockets the frame was handed to (queued writes are
+     *         not counted)
+     */
+    public static int broadcastBackground(String text, Collection<WebSocket> recipients, Consumer<WebSocket> dropped) {
+        return broadcast(recipients, d -> d.createFrames(text, false),
+            (conn, write) -> OutboundBackpressure.sendBackground(conn, write,
+                dropped == null ? null : () -> dropped.accept(conn)));
+    }
+
+    /**
+     * Send one binary message to every open recipient. The buffer is not
+     * consumed; each framing works on its own duplicate.
+     */
+    public static int broadcast(ByteBuffer payload, Collection<WebSocket> recipients, String coalesceKey) {
+        return broadcast(recipients, d -> d.createFrames(payload.duplicate(), false),
+            (conn, write) -> OutboundBackpressure.send(conn, coalesceKey, write));
+    }
+
+    // lane hands the write to OutboundBackpressure and says whether it went out now
+    private static int broadcast(Collection<WebSocket> recipients, Function<Draft, List<Framedata>> framer,
+                                 BiPredicate<WebSocket, Runnable> lane) {
+        // Almost always a single draft, so keep the map tiny
+        Map<Draft, List<Framedata>> framesByDraft = new HashMap<>(2);
+        int sent = 0;
+        for (WebSocket conn : recipients) {
+            if (conn == null || !conn.isOpen()) {
+                continue;
+            }
+            Draft draft = conn.getDraft();
+            List<Framedata> frames = isCompressing(draft)
+                ? framer.apply(draft)
+                : framesByDraft.computeIfAbsent(draft, framer);
+            try {
+                if (lane.test(conn, () -> conn.sendFrame(frames))) {
+                    sent++;
+                }
+            } catch (WebsocketNotConnectedException e) {
+                // Closed between the isOpen check and the write; skip it
+            }
+        }
+        return sent;
+    }
+
+    // Compression extensions rewrite the frame payload in place on send, so
+    // those frames cannot be shared between sockets
+    private static boolean isCompressing(Draft draft) {
+        return draft instanceof Draft_6455 d && d.getExtension() instanceof CompressionExtension;
+    }
+}
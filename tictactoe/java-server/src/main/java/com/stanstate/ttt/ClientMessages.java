@@ -0,0 +1,42 @@
+package com.stanstate.ttt;
+
+/**
+ * Typed payloads for client -> server WebSocket frames.
+ * Field names match the JSON keys the clients send.
+ */
+public final class ClientMessages {
+    private ClientMessages() {}
+
+    // {"sessionId":"...","lastSeq":123} - frames without a known "t" register
+    // the socket; lastSeq (optional) resumes the message stream after that seq
+    public static class Register {
+        public String sessionId;
+        public Long lastSeq;
+    }
+
+    // {"t":"heartbeat_response","sessionId":"..."}
+    public static class HeartbeatResponse {
+        public String sessionId;
+    }
+
+    // {"t":"connection_quality","sessionId":"...","quality":0.8}
+    public static class ConnectionQuality {
+        public String sessionId;
+        public Double quality;
+    }
+
+    // {"t":"lobby_subscribe","sessionId":"..."} / {"t":"lobby_unsubscribe"} -
+    // open-match list and create/remove deltas pushed instead of polling /api/matches
+    public static class LobbySubscription {
+        public String sessionId;
+    }
+
+    // {"t":"move","matchId":"...","cell":4} - sessionId comes from the bound socket;
+    // optional "expectedVersion" rejects the move if the match has moved on
+    public static class Move {
+        public String sessionId;
+        public String matchId;
+        public Integer cell;
+        public Long expectedVersion;
+    }
+}
@@ -8,7 +8,8 @@ public class ClientSession {
   public int seat;
   public ClientSession(WebSocket c){ this.conn=c; }
   public void send(JsonObject obj){ 
-    System.out.println("Sending to client: " + obj.toString());
-    conn.send(obj.toString()); 
+    String text = obj.toString();
+    System.out.println("Sending to client: " + text);
+    conn.send(text); 
   }
 }
\ No newline at end of file
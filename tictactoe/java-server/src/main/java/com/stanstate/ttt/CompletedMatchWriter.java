@@ -0,0 +1,453 @@
+package com.stanstate.ttt;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind persistence of finished tic-tac-toe matches.
+ *
+ * The move that finishes a game only queues an immutable snapshot of it. A
+ * single writer thread (same model as AsyncScoreTracker) drains up to
+ * matchWriter.batchSize matches and writes them in one transaction: batched
+ * MERGEs for the player sessions and game_matches rows, then player_stats
+ * for every player in the batch from one SELECT and one batched MERGE. If the
+ * transaction fails it is rolled back and the same batch is retried with
+ * exponential backoff (up to matchWriter.maxBackoffMs), so matches are
+ * neither lost nor counted twice while the database is unavailable.
+ *
+ * A batch that still fails after matchWriter.maxRetries attempts is split in
+ * halves and each half committed on its own, recursively, so one bad row
+ * cannot hold back the rest; a row that fails by itself is dead-lettered
+ * (logged and kept in the stats). Failures to reach the database at all are
+ * not the rows' fault and do not count against the retries.
+ *
+ * The queue is bounded and enqueue never blocks: the finishing move may run
+ * on a WebSocket thread. When the queue is full the match is rejected; its
+ * result is still in the cache, it is just not persisted.
+ */
+public class CompletedMatchWriter {
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final int RECENT_DEAD_LETTERS = 20;
+
+    private static CompletedMatchWriter instance;
+
+    private final ServerConfig config;
+    private final DatabaseManager dbManager;
+    private final BlockingQueue<CompletedMatch> queue;
+    private final int queueCapacity;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong isolatedBatches = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // Newest first; guarded by itself
+    private final Deque<Map<String, Object>> recentDeadLetters = new ArrayDeque<>();
+    private volatile long currentBackoffMs;
+    private volatile long lastBatchMs;
+    private volatile long lastCommitLagMs;
+    private volatile long maxCommitLagMs;
+
+    /**
+     * A finished match as of its final state. Copied out of the GameState so
+     * the writer never reads fields that could still change.
+     */
+    public static final class CompletedMatch {
+        final String matchId;
+        final String sessionId1;
+        final String sessionId2;
+        final String player1Name;
+        final String player2Name;
+        final long state;
+        final long finishedAt;
+
+        CompletedMatch(GameStateCache.GameState game, long state) {
+            this.matchId = game.matchId;
+            this.sessionId1 = game.sessionId1;
+            this.sessionId2 = game.sessionId2;
+            this.player1Name = game.player1Name;
+            this.player2Name = game.player2Name;
+            this.state = state;
+            this.finishedAt = System.currentTimeMillis();
+        }
+    }
+
+    private CompletedMatchWriter() {
+        this.config = ServerConfig.getInstance();
+        this.dbManager = DatabaseManager.getInstance();
+        this.queueCapacity = config.get(ServerConfig.MATCH_WRITER_QUEUE_CAPACITY);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        ExecutorRegistry registry = ExecutorRegistry.getInstance();
+        this.writerThread = registry.thread("MatchWriter-1", this::writerLoop, false);
+        this.writerThread.start();
+        registry.onShutdown(ExecutorRegistry.Phase.PERSISTENCE, "CompletedMatchWriter", this::shutdown);
+        System.out.println("CompletedMatchWriter initialized (write-behind, batched transactions)");
+    }
+
+    public static synchronized CompletedMatchWriter getInstance() {
+        if (instance == null) {
+            instance = new CompletedMatchWriter();
+        }
+        return instance;
+    }
+
+    /**
+     * Queue a finished match. Never blocks; if the queue is full the match is
+     * rejected and counted, and false is returned.
+     */
+    public boolean enqueue(GameStateCache.GameState game, long state) {
+        CompletedMatch match = new CompletedMatch(game, state);
+        if (!queue.offer(match)) {
+            rejected.incrementAndGet();
+            System.err.println("Completed match queue full (" + queueCapacity + "); match " + match.matchId +
+                               " " + GameStateCache.GameState.resultOf(state) + " not persisted");
+            return false;
+        }
+        enqueued.incrementAndGet();
+        return true;
+    }
+
+    private void writerLoop() {
+        List<CompletedMatch> batch = new ArrayList<>();
+        int attempts = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    CompletedMatch first = queue.poll(config.get(ServerConfig.MATCH_WRITER_BATCH_TIMEOUT_MS), TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, config.get(ServerConfig.MATCH_WRITER_BATCH_SIZE) - 1);
+                    attempts = 0;
+                }
+
+                commit(batch);
+                currentBackoffMs = 0;
+                batch.clear();
+            } catch (SQLException e) {
+                failedBatches.incrementAndGet();
+                if (!running) {
+                    // Shutting down; don't hold the JVM hostage to a dead database
+                    System.err.println("Dropping " + batch.size() + " completed matches during shutdown: " + e.getMessage());
+                    dropped.addAndGet(batch.size());
+                    batch.clear();
+                    continue;
+                }
+                if (!isUnavailable(e) && ++attempts >= config.get(ServerConfig.MATCH_WRITER_MAX_RETRIES)) {
+                    // Retrying the same rows will not help; find the ones at fault
+                    List<CompletedMatch> untried = isolate(batch, e);
+                    batch.clear();
+                    batch.addAll(untried);
+                    attempts = 0;
+                    if (batch.isEmpty()) {
+                        currentBackoffMs = 0;
+                        continue;
+                    }
+                }
+                long backoff = currentBackoffMs == 0 ? INITIAL_BACKOFF_MS
+                    : Math.min(currentBackoffMs * 2, config.get(ServerConfig.MATCH_WRITER_MAX_BACKOFF_MS));
+                currentBackoffMs = backoff;
+                System.err.println("Completed match batch of " + batch.size() + " failed, retrying in " + backoff + "ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    // Nothing interrupts this thread on purpose; the loop re-checks running
+                }
+            } catch (InterruptedException e) {
+                // As above; re-setting the flag would make every poll fail at once
+            } catch (Exception e) {
+                System.err.println("Error in match writer thread: " + e.getMessage());
+                e.printStackTrace();
+                dropped.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<CompletedMatch> batch) throws SQLException {
+        long start = System.currentTimeMillis();
+        writeBatch(batch);
+        long now = System.currentTimeMillis();
+        lastBatchMs = now - start;
+        long lag = now - batch.get(0).finishedAt;
+        lastCommitLagMs = lag;
+        if (lag > maxCommitLagMs) {
+            maxCommitLagMs = lag;
+        }
+        written.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    /**
+     * Commit a batch that keeps failing in halves, splitting again whatever
+     * still fails, so every good row is written and a row that fails alone is
+     * dead-lettered. Each part is its own transaction, so nothing is counted
+     * twice. If the database becomes unreachable part way, the rows not yet
+     * resolved are returned for the normal retry loop.
+     */
+    private List<CompletedMatch> isolate(List<CompletedMatch> batch, SQLException failure) {
+        isolatedBatches.incrementAndGet();
+        System.err.println("Completed match batch of " + batch.size() + " failed " +
+                           config.get(ServerConfig.MATCH_WRITER_MAX_RETRIES) + " times, splitting it: " + failure.getMessage());
+        if (batch.size() == 1) {
+            deadLetter(batch.get(0), failure);
+            return List.of();
+        }
+        Deque<List<CompletedMatch>> parts = new ArrayDeque<>();
+        split(batch, parts);
+        while (!parts.isEmpty()) {
+            List<CompletedMatch> part = parts.pop();
+            try {
+                commit(part);
+            } catch (SQLException e) {
+                failedBatches.incrementAndGet();
+                if (isUnavailable(e)) {
+                    List<CompletedMatch> untried = new ArrayList<>(part);
+                    while (!parts.isEmpty()) {
+                        untried.addAll(parts.pop());
+                    }
+                    return untried;
+                }
+                if (part.size() == 1) {
+                    deadLetter(part.get(0), e);
+                } else {
+                    split(part, parts);
+                }
+            }
+        }
+        return List.of();
+    }
+
+    // Pushed so the first half is popped first and rows keep their order
+    private static void split(List<CompletedMatch> part, Deque<List<CompletedMatch>> parts) {
+        int mid = part.size() / 2;
+        parts.push(new ArrayList<>(part.subList(mid, part.size())));
+        parts.push(new ArrayList<>(part.subList(0, mid)));
+    }
+
+    private void deadLetter(CompletedMatch match, SQLException e) {
+        deadLettered.incrementAndGet();
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("matchId", match.matchId);
+        entry.put("player1", match.player1Name);
+        entry.put("player2", match.player2Name);
+        entry.put("board", GameStateCache.GameState.boardOf(match.state));
+        entry.put("result", GameStateCache.GameState.resultOf(match.state));
+        entry.put("finishedAt", match.finishedAt);
+        entry.put("error", e.getMessage());
+        synchronized (recentDeadLetters) {
+            recentDeadLetters.addFirst(entry);
+            if (recentDeadLetters.size() > RECENT_DEAD_LETTERS) {
+                recentDeadLetters.removeLast();
+            }
+        }
+        System.err.println("Dead-lettered completed match " + entry + ": not persisted");
+    }
+
+    /**
+     * The database could not be reached at all (pool exhausted or shut down,
+     * connection lost), as opposed to rejecting a statement. Retrying later
+     * is the only fix, so these never lead to dead letters.
+     */
+    private static boolean isUnavailable(SQLException e) {
+        if (e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        // ConnectionPool's own errors carry no SQL state
+        return state == null || state.startsWith("08");
+    }
+
+    // One transaction for the whole batch; rolled back as a unit on failure
+    private void writeBatch(List<CompletedMatch> batch) throws SQLException {
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                upsertSessions(conn, batch);
+                upsertMatches(conn, batch);
+                updatePlayerStats(conn, batch);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Ensure player sessions exist for FK integrity
+    private void upsertSessions(Connection conn, List<CompletedMatch> batch) throws SQLException {
+        Map<String, String> sessions = new LinkedHashMap<>();
+        for (CompletedMatch match : batch) {
+            if (match.sessionId1 != null) {
+                sessions.put(match.sessionId1, match.player1Name);
+            }
+            if (match.sessionId2 != null) {
+                sessions.put(match.sessionId2, match.player2Name);
+            }
+        }
+        PreparedStatement stmt = conn.prepareStatement(
+            "MERGE INTO player_sessions (session_id, player_name, connection_status, last_heartbeat) " +
+            "KEY(session_id) VALUES (?, ?, 'connected', CURRENT_TIMESTAMP)"
+        );
+        for (Map.Entry<String, String> e : sessions.entrySet()) {
+            stmt.setString(1, e.getKey());
+            stmt.setString(2, e.getValue());
+            stmt.addBatch();
+        }
+        stmt.executeBatch();
+    }
+
+    private void upsertMatches(Connection conn, List<CompletedMatch> batch) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(
+            "MERGE INTO game_matches " +
+            "(match_id, player1_session, player2_session, status, current_turn, board, result, state_version, last_move_at) " +
+            "KEY(match_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)"
+        );
+        for (CompletedMatch match : batch) {
+            stmt.setString(1, match.matchId);
+            stmt.setString(2, match.sessionId1);
+            stmt.setString(3, match.sessionId2);
+            stmt.setString(4, GameStateCache.GameState.statusNameOf(match.state));
+            stmt.setString(5, GameStateCache.GameState.currentPlayerOf(match.state));
+            stmt.setString(6, GameStateCache.GameState.boardOf(match.state));
+            stmt.setString(7, GameStateCache.GameState.resultOf(match.state));
+            stmt.setLong(8, GameStateCache.GameState.versionOf(match.state));
+            // When the game ended, not when the writer got to it
+            stmt.setTimestamp(9, new java.sql.Timestamp(match.finishedAt));
+            stmt.addBatch();
+        }
+        stmt.executeBatch();
+        System.out.println("Saved " + batch.size() + " completed games to database");
+    }
+
+    // Wins/losses/draws of every player in the batch, applied in one pass
+    private void updatePlayerStats(Connection conn, List<CompletedMatch> batch) throws SQLException {
+        Map<String, int[]> deltas = new LinkedHashMap<>(); // name -> {wins, losses, draws}
+        for (CompletedMatch match : batch) {
+            int outcome = GameStateCache.GameState.outcomeOf(match.state);
+            addResult(deltas, match.player1Name, outcome, Bitboard.X_WINS);
+            addResult(deltas, match.player2Name, outcome, Bitboard.O_WINS);
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        Map<String, int[]> current = new LinkedHashMap<>(); // name -> {total, wins, losses, draws}
+        PreparedStatement select = conn.prepareStatement(
+            "SELECT player_name, total_games, wins, losses, draws FROM player_stats WHERE player_name = ANY(?)"
+        );
+        select.setArray(1, conn.createArrayOf("VARCHAR", deltas.keySet().toArray()));
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                current.put(rs.getString("player_name"), new int[] {
+                    rs.getInt("total_games"), rs.getInt("wins"), rs.getInt("losses"), rs.getInt("draws")
+                });
+            }
+        }
+
+        PreparedStatement merge = conn.prepareStatement(
+            "MERGE INTO player_stats " +
+            "(player_name, total_games, wins, losses, draws, win_rate, last_game) " +
+            "KEY(player_name) VALUES (?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)"
+        );
+        for (Map.Entry<String, int[]> e : deltas.entrySet()) {
+            int[] before = current.getOrDefault(e.getKey(), new int[4]);
+            int[] delta = e.getValue();
+            int wins = before[1] + delta[0];
+            int losses = before[2] + delta[1];
+            int draws = before[3] + delta[2];
+            int totalGames = before[0] + delta[0] + delta[1] + delta[2];
+            merge.setString(1, e.getKey());
+            merge.setInt(2, totalGames);
+            merge.setInt(3, wins);
+            merge.setInt(4, losses);
+            merge.setInt(5, draws);
+            merge.setDouble(6, totalGames > 0 ? (double) wins / totalGames : 0.0);
+            merge.addBatch();
+        }
+        merge.executeBatch();
+    }
+
+    private static void addResult(Map<String, int[]> deltas, String playerName, int outcome, int winOutcome) {
+        if (playerName == null) {
+            return;
+        }
+        int[] delta = deltas.computeIfAbsent(playerName, k -> new int[3]);
+        if (outcome == Bitboard.DRAW) {
+            delta[2]++;
+        } else if (outcome == winOutcome) {
+            delta[0]++;
+        } else {
+            delta[1]++;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        CompletedMatch oldest = queue.peek();
+        long batchCount = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("enqueued", enqueued.get());
+        stats.put("written", written.get());
+        stats.put("batches", batchCount);
+        stats.put("avgBatchSize", batchCount > 0 ? (double) written.get() / batchCount : 0.0);
+        stats.put("lastBatchMs", lastBatchMs);
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("currentBackoffMs", currentBackoffMs);
+        stats.put("rejected", rejected.get());
+        stats.put("isolatedBatches", isolatedBatches.get());
+        stats.put("deadLettered", deadLettered.get());
+        stats.put("dropped", dropped.get());
+        // Lag: how long ago the oldest unwritten match finished
+        stats.put("oldestPendingAgeMs", oldest != null ? System.currentTimeMillis() - oldest.finishedAt : 0);
+        stats.put("lastCommitLagMs", lastCommitLagMs);
+        stats.put("maxCommitLagMs", maxCommitLagMs);
+        synchronized (recentDeadLetters) {
+            stats.put("recentDeadLetters", new ArrayList<>(recentDeadLetters));
+        }
+        return stats;
+    }
+
+    /**
+     * Let the writer finish what is queued, then stop it. Runs in the
+     * PERSISTENCE phase, before the database shuts down.
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        System.out.println("CompletedMatchWriter shutting down... (pending matches: " + queue.size() + ")");
+        running = false;
+        try {
+            writerThread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            System.err.println("Match writer still busy after 10s; " + queue.size() + " matches not persisted");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.stanstate.ttt;
+
+import org.java_websocket.WebSocket;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-socket state stored as the WebSocket attachment.
+ * Gives close/error handlers an O(1) socket -> session lookup instead of
+ * scanning the notifier's session map.
+ */
+public class ConnectionContext {
+    private final long openedAt;
+    private volatile String sessionId;
+    // Negotiated permessage-deflate instance, null if the client did not offer it
+    private volatile MeteredDeflateExtension deflate;
+    // True when the client negotiated the BinaryProtocol subprotocol
+    private volatile boolean binary;
+    // Outbound backpressure state, guarded by this (see OutboundBackpressure)
+    // Parked gameplay writes in send order, keyed by coalescing key (or a
+    // unique token for frames nothing can replace)
+    final Map<Object, Runnable> parked = new LinkedHashMap<>();
+    long overLimitSince;
+    // Background lane: rate-limited writes waiting for a token, oldest first
+    final ArrayDeque<OutboundBackpressure.Queued> background = new ArrayDeque<>();
+    double backgroundTokens = -1; // -1 = not started; filled to the burst on first use
+    long backgroundRefilledAt;
+
+    public ConnectionContext() {
+        this.openedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the context attached to a socket, attaching a fresh one if the
+     * socket has none yet (e.g. a message raced ahead of onOpen).
+     */
+    public static ConnectionContext of(WebSocket conn) {
+        synchronized (conn) {
+            ConnectionContext ctx = conn.getAttachment();
+            if (ctx == null) {
+                ctx = new ConnectionContext();
+                conn.setAttachment(ctx);
+            }
+            return ctx;
+        }
+    }
+
+    /**
+     * Session bound to a socket, or null if it never registered.
+     */
+    public static String sessionOf(WebSocket conn) {
+        if (conn == null) {
+            return null;
+        }
+        ConnectionContext ctx = conn.getAttachment();
+        return ctx != null ? ctx.getSessionId() : null;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    void bind(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    void unbind() {
+        this.sessionId = null;
+    }
+
+    public MeteredDeflateExtension getDeflate() {
+        return deflate;
+    }
+
+    void setDeflate(MeteredDeflateExtension deflate) {
+        this.deflate = deflate;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * True if the socket negotiated the binary game protocol.
+     */
+    public static boolean isBinary(WebSocket conn) {
+        ConnectionContext ctx = conn.getAttachment();
+        return ctx != null && ctx.isBinary();
+    }
+
+    public long getOpenedAt() {
+        return openedAt;
+    }
+}
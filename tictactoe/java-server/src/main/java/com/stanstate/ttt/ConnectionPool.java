@@ -9,20 +9,25 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 public class ConnectionPool {
-    private static final String DB_URL = "jdbc:h2:./database/ttt_game;MODE=MySQL;DB_CLOSE_DELAY=-1;AUTO_SERVER=TRUE;LOCK_TIMEOUT=15000";
-    private static final int POOL_SIZE = 10; // Connection pool size
     private static ConnectionPool instance;
     
+    // db.url / db.poolSize from ServerConfig, fixed for the life of the pool
+    private final String dbUrl;
+    private final int poolSize;
+    
     private final BlockingQueue<Connection> pool;
     private volatile boolean shutdown = false;
     
     private ConnectionPool() throws SQLException {
-        pool = new ArrayBlockingQueue<>(POOL_SIZE);
+        ServerConfig config = ServerConfig.getInstance();
+        dbUrl = config.get(ServerConfig.DB_URL);
+        poolSize = config.get(ServerConfig.DB_POOL_SIZE);
+        pool = new ArrayBlockingQueue<>(poolSize);
         
         // First, create one connection to set up the database
         Connection setupConn = null;
         try {
-            setupConn = DriverManager.getConnection(DB_URL);
+            setupConn = DriverManager.getConnection(dbUrl);
             
             // H2 automatically handles concurrency and durability, no PRAGMAs needed
             setupConn.setAutoCommit(true);
@@ -32,13 +37,13 @@ public class ConnectionPool {
             setupConn = null; // Don't close it in finally block
             
             // Pre-create remaining connections
-            for (int i = 1; i < POOL_SIZE; i++) {
-                Connection conn = DriverManager.getConnection(DB_URL);
+            for (int i = 1; i < poolSize; i++) {
+                Connection conn = DriverManager.getConnection(dbUrl);
                 conn.setAutoCommit(true);
                 pool.offer(conn);
             }
             
-            System.out.println("Connection pool initialized with " + POOL_SIZE + " connections");
+            System.out.println("Connection pool initialized with " + poolSize + " connections");
         } catch (SQLException e) {
             // Cleanup on error
             if (setupConn != null) {
@@ -57,7 +62,7 @@ public class ConnectionPool {
     }
     
     public static String getDatabaseUrl() {
-        return DB_URL;
+        return ServerConfig.getInstance().get(ServerConfig.DB_URL);
     }
     
     public Connection getConnection() throws SQLException {
@@ -74,7 +79,7 @@ public class ConnectionPool {
             // Check if connection is still valid
             if (conn.isClosed() || !conn.isValid(1)) {
                 // Replace with new connection
-                conn = DriverManager.getConnection(DB_URL);
+                conn = DriverManager.getConnection(dbUrl);
             }
             
             return new PooledConnection(conn, this);
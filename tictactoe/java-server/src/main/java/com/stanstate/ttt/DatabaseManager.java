@@ -3,8 +3,8 @@ package com.stanstate.ttt;
 import java.sql.*;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
@@ -13,19 +13,21 @@ public class DatabaseManager {
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private static DatabaseManager instance;
     private final ScheduledExecutorService cleanupScheduler;
+    private ScheduledFuture<?> cleanupTask;
     private ConnectionPool connectionPool;
     // Per-username locks to prevent race conditions in user registration
     private final ConcurrentHashMap<String, ReentrantLock> userLocks = new ConcurrentHashMap<>();
     
     private DatabaseManager() {
         // Private constructor for singleton
-        this.cleanupScheduler = Executors.newScheduledThreadPool(1);
+        this.cleanupScheduler = ExecutorRegistry.getInstance().maintenance();
         try {
             this.connectionPool = ConnectionPool.getInstance();
         } catch (SQLException e) {
             throw new RuntimeException("Failed to initialize connection pool", e);
         }
         startCleanupTask();
+        ExecutorRegistry.getInstance().onShutdown(ExecutorRegistry.Phase.DATABASE, "DatabaseManager", this::shutdown);
     }
     
     public static synchronized DatabaseManager getInstance() {
@@ -139,6 +141,7 @@ public class DatabaseManager {
                 max_attempts INTEGER DEFAULT 3,
                 next_retry TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                 delivered BOOLEAN DEFAULT FALSE,
+                coalesce_key TEXT,
                 FOREIGN KEY (session_id) REFERENCES player_sessions(session_id)
             )
         """);
@@ -247,9 +250,20 @@ public class DatabaseManager {
             KEY(id) VALUES (1, NULL, NULL, NULL)
         """);
         
+        createNotificationIndexes(conn);
+        
         // Set database version
-        conn.createStatement().execute("MERGE INTO schema_version (version) KEY(version) VALUES (5)");
-        System.out.println("Fresh database created with version 5");
+        conn.createStatement().execute("MERGE INTO schema_version (version) KEY(version) VALUES (7)");
+        System.out.println("Fresh database created with version 7");
+    }
+    
+    // Reconnect drains look up by (session_id, delivered); the retry scan by
+    // (delivered, next_retry). Without these both are full table scans.
+    private void createNotificationIndexes(Connection conn) throws SQLException {
+        conn.createStatement().execute(
+            "CREATE INDEX IF NOT EXISTS idx_pending_session_delivered ON pending_notifications (session_id, delivered)");
+        conn.createStatement().execute(
+            "CREATE INDEX IF NOT EXISTS idx_pending_delivered_retry ON pending_notifications (delivered, next_retry)");
     }
     
     private void migrateDatabase(Connection conn, int currentVersion) throws SQLException {
@@ -435,6 +449,32 @@ public class DatabaseManager {
                 System.err.println("Failed to update schema version: " + e.getMessage());
             }
         }
+        
+        if (currentVersion < 6) {
+            System.out.println("Adding pending_notifications indexes for version 6...");
+            
+            try {
+                createNotificationIndexes(conn);
+                conn.createStatement().execute("MERGE INTO schema_version (version) KEY(version) VALUES (6)");
+                System.out.println("Database migrated to version 6");
+            } catch (SQLException e) {
+                System.err.println("Failed to add pending_notifications indexes: " + e.getMessage());
+            }
+        }
+        
+        if (currentVersion < 7) {
+            // Newer state/over of a match replaces an undelivered older row with the same key
+            System.out.println("Adding pending_notifications.coalesce_key for version 7...");
+            
+            try {
+                conn.createStatement().execute(
+                    "ALTER TABLE pending_notifications ADD COLUMN IF NOT EXISTS coalesce_key TEXT");
+                conn.createStatement().execute("MERGE INTO schema_version (version) KEY(version) VALUES (7)");
+                System.out.println("Database migrated to version 7");
+            } catch (SQLException e) {
+                System.err.println("Failed to add pending_notifications.coalesce_key: " + e.getMessage());
+            }
+        }
     }
     
     private boolean isUniqueViolation(SQLException e) {
@@ -465,10 +505,12 @@ public class DatabaseManager {
     
     private void startCleanupTask() {
         // Run cleanup every 30 seconds
-        cleanupScheduler.scheduleAtFixedRate(this::cleanupDeadConnections, 30, 30, TimeUnit.SECONDS);
+        cleanupTask = cleanupScheduler.scheduleAtFixedRate(this::cleanupDeadConnections, 30, 30, TimeUnit.SECONDS);
     }
     
     public void cleanupDeadConnections() {
+        // Recent activity is buffered in memory; write it before judging staleness
+        ActivityRecorder.getInstance().flush();
         try (Connection conn = getConnection()) {
             // Mark connections as dead if no heartbeat for 2 minutes
             // H2 uses CURRENT_TIMESTAMP instead of datetime()
@@ -499,17 +541,6 @@ public class DatabaseManager {
         }
     }
     
-    public void updateHeartbeat(String sessionId) {
-        try (Connection conn = getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "UPDATE player_sessions SET last_heartbeat = CURRENT_TIMESTAMP, connection_status = 'connected' WHERE session_id = ?"
-            );
-            stmt.setString(1, sessionId);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Failed to update heartbeat for " + sessionId + ": " + e.getMessage());
-        }
-    }
     
     // ==================== USER AUTHENTICATION METHODS ====================
     
@@ -989,14 +1020,8 @@ public class DatabaseManager {
         }
     }
 
+    // The scheduler is shared (ExecutorRegistry owns it); only stop our task
     public void shutdown() {
-        cleanupScheduler.shutdown();
-        try {
-            if (!cleanupScheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                cleanupScheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            cleanupScheduler.shutdownNow();
-        }
+        cleanupTask.cancel(false);
     }
 }
@@ -0,0 +1,335 @@
+package com.stanstate.ttt;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every thread pool and long-running thread in the server, by name.
+ *
+ * Subsystems ask for a pool by name instead of calling Executors directly;
+ * asking twice for the same name returns the same pool, so extra instances
+ * of a subsystem share threads instead of adding more. Each pool reports
+ * its size, active threads, queue depth and task wait/run times.
+ *
+ * {@link #shutdown()} runs phase by phase: first the subsystem hooks
+ * registered for the phase (which stop their tasks and flush), then any pool
+ * of that phase still running. Shared pools like "maintenance" belong to the
+ * last phase, so flush hooks of earlier phases can still use them.
+ */
+public final class ExecutorRegistry {
+    /** Shutdown order: network first, database last. */
+    public enum Phase { NETWORK, GAME, PERSISTENCE, DATABASE }
+
+    // Shared scheduler for periodic housekeeping (cleanup, flushes, snapshots)
+    public static final String MAINTENANCE = "maintenance";
+
+    private static ExecutorRegistry instance;
+
+    private final Map<String, Pool> pools = new LinkedHashMap<>();
+    private final Map<String, Thread> threads = new LinkedHashMap<>();
+    private final Map<Phase, List<Hook>> hooks = new EnumMap<>(Phase.class);
+    private boolean shutDown;
+
+    private static final class Hook {
+        final String name;
+        final Runnable action;
+
+        Hook(String name, Runnable action) {
+            this.name = name;
+            this.action = action;
+        }
+    }
+
+    // Wait/run timing shared by both pool types
+    private static final class Metrics {
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong totalWaitMicros = new AtomicLong();
+        final AtomicLong totalRunMicros = new AtomicLong();
+        final AtomicLong callerRuns = new AtomicLong();
+        volatile long maxWaitMicros;
+        volatile long maxRunMicros;
+        final ThreadLocal<Long> started = new ThreadLocal<>();
+
+        void before(long waitMicros) {
+            totalWaitMicros.addAndGet(waitMicros);
+            if (waitMicros > maxWaitMicros) {
+                maxWaitMicros = waitMicros;
+            }
+            started.set(System.nanoTime());
+        }
+
+        void after() {
+            Long start = started.get();
+            if (start == null) {
+                return;
+            }
+            long runMicros = (System.nanoTime() - start) / 1000;
+            totalRunMicros.addAndGet(runMicros);
+            if (runMicros > maxRunMicros) {
+                maxRunMicros = runMicros;
+            }
+            completed.incrementAndGet();
+        }
+    }
+
+    private static final class Pool {
+        final ThreadPoolExecutor executor;
+        final Phase phase;
+        final Metrics metrics;
+        final int queueCapacity;
+
+        Pool(ThreadPoolExecutor executor, Phase phase, Metrics metrics, int queueCapacity) {
+            this.executor = executor;
+            this.phase = phase;
+            this.metrics = metrics;
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    // Wait = time from submit to start
+    private static final class TimedTask implements Runnable {
+        final Runnable task;
+        final long submittedAt = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private static final class InstrumentedPool extends ThreadPoolExecutor {
+        final Metrics metrics;
+
+        InstrumentedPool(int threads, int queueCapacity, ThreadFactory factory, Metrics metrics) {
+            super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), factory,
+                  callerRuns(metrics));
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedTask(command));
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            long wait = r instanceof TimedTask timed ? (System.nanoTime() - timed.submittedAt) / 1000 : 0;
+            metrics.before(wait);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            metrics.after();
+        }
+    }
+
+    // Wait = how late a scheduled run started
+    private static final class InstrumentedScheduler extends ScheduledThreadPoolExecutor {
+        final Metrics metrics;
+
+        InstrumentedScheduler(int threads, ThreadFactory factory, Metrics metrics) {
+            super(threads, factory);
+            this.metrics = metrics;
+            setRemoveOnCancelPolicy(true);
+            // Subsystem hooks already did their final run; don't wait out pending delays
+            setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            long late = r instanceof Delayed delayed ? -delayed.getDelay(TimeUnit.MICROSECONDS) : 0;
+            metrics.before(Math.max(0, late));
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            metrics.after();
+        }
+    }
+
+    // A full queue makes the submitting thread run the task (backpressure)
+    private static RejectedExecutionHandler callerRuns(Metrics metrics) {
+        ThreadPoolExecutor.CallerRunsPolicy policy = new ThreadPoolExecutor.CallerRunsPolicy();
+        return (r, executor) -> {
+            metrics.callerRuns.incrementAndGet();
+            policy.rejectedExecution(r, executor);
+        };
+    }
+
+    private static ThreadFactory named(String name, boolean daemon) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(daemon);
+            return t;
+        };
+    }
+
+    private ExecutorRegistry() {
+        for (Phase phase : Phase.values()) {
+            hooks.put(phase, new ArrayList<>());
+        }
+    }
+
+    public static synchronized ExecutorRegistry getInstance() {
+        if (instance == null) {
+            instance = new ExecutorRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Named scheduled pool; created on first request, shared afterwards.
+     * Threads are daemons named "name-N".
+     */
+    public synchronized ScheduledExecutorService scheduled(String name, int threads, Phase phase) {
+        Pool pool = pools.get(name);
+        if (pool == null) {
+            Metrics metrics = new Metrics();
+            pool = new Pool(new InstrumentedScheduler(threads, named(name, true), metrics), phase, metrics, -1);
+            pools.put(name, pool);
+        }
+        return (ScheduledExecutorService) pool.executor;
+    }
+
+    /**
+     * The shared housekeeping scheduler. Tasks must not block for long.
+     */
+    public ScheduledExecutorService maintenance() {
+        return scheduled(MAINTENANCE, ServerConfig.getInstance().get(ServerConfig.EXECUTOR_MAINTENANCE_THREADS), Phase.DATABASE);
+    }
+
+    /**
+     * Named fixed-size pool with a bounded queue; when the queue is full the
+     * submitting thread runs the task itself.
+     */
+    public synchronized ExecutorService fixed(String name, int threads, int queueCapacity, Phase phase) {
+        Pool pool = pools.get(name);
+        if (pool == null) {
+            Metrics metrics = new Metrics();
+            pool = new Pool(new InstrumentedPool(threads, queueCapacity, named(name, false), metrics), phase, metrics, queueCapacity);
+            pools.put(name, pool);
+        }
+        return pool.executor;
+    }
+
+    /**
+     * A dedicated, named thread (event loops such as the score writer). Not
+     * started; the caller owns its lifecycle, the registry only reports it.
+     */
+    public synchronized Thread thread(String name, Runnable body, boolean daemon) {
+        Thread t = new Thread(body, name);
+        t.setDaemon(daemon);
+        threads.put(name, t);
+        return t;
+    }
+
+    /**
+     * Run {@code action} during {@link #shutdown()} in the given phase,
+     * before that phase's pools are stopped.
+     */
+    public synchronized void onShutdown(Phase phase, String name, Runnable action) {
+        hooks.get(phase).add(new Hook(name, action));
+    }
+
+    /**
+     * Ordered shutdown of every registered subsystem and pool. Safe to call
+     * more than once.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (shutDown) {
+                return;
+            }
+            shutDown = true;
+        }
+        for (Phase phase : Phase.values()) {
+            List<Hook> phaseHooks;
+            List<Pool> phasePools = new ArrayList<>();
+            synchronized (this) {
+                phaseHooks = new ArrayList<>(hooks.get(phase));
+                for (Pool pool : pools.values()) {
+                    if (pool.phase == phase) {
+                        phasePools.add(pool);
+                    }
+                }
+            }
+            for (Hook hook : phaseHooks) {
+                System.out.println("Shutting down " + hook.name + "...");
+                try {
+                    hook.action.run();
+                } catch (Exception e) {
+                    System.err.println("Shutdown of " + hook.name + " failed: " + e.getMessage());
+                }
+            }
+            for (Pool pool : phasePools) {
+                pool.executor.shutdown();
+            }
+            for (Pool pool : phasePools) {
+                try {
+                    if (!pool.executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                        pool.executor.shutdownNow();
+                    }
+                } catch (InterruptedException e) {
+                    pool.executor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> poolStats = new LinkedHashMap<>();
+        for (Map.Entry<String, Pool> e : pools.entrySet()) {
+            Pool pool = e.getValue();
+            ThreadPoolExecutor ex = pool.executor;
+            Metrics m = pool.metrics;
+            long completed = m.completed.get();
+
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("type", ex instanceof ScheduledThreadPoolExecutor ? "scheduled" : "fixed");
+            s.put("phase", pool.phase.name());
+            s.put("poolSize", ex.getPoolSize());
+            s.put("activeThreads", ex.getActiveCount());
+            s.put("queueDepth", ex.getQueue().size());
+            if (pool.queueCapacity > 0) {
+                s.put("queueCapacity", pool.queueCapacity);
+                s.put("callerRuns", m.callerRuns.get());
+            }
+            s.put("completedTasks", completed);
+            s.put("avgWaitMicros", completed > 0 ? m.totalWaitMicros.get() / completed : 0);
+            s.put("maxWaitMicros", m.maxWaitMicros);
+            s.put("avgRunMicros", completed > 0 ? m.totalRunMicros.get() / completed : 0);
+            s.put("maxRunMicros", m.maxRunMicros);
+            s.put("shutdown", ex.isShutdown());
+            poolStats.put(e.getKey(), s);
+        }
+        Map<String, Object> threadStats = new LinkedHashMap<>();
+        for (Map.Entry<String, Thread> e : threads.entrySet()) {
+            threadStats.put(e.getKey(), e.getValue().isAlive() ? e.getValue().getState().name() : "TERMINATED");
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pools", poolStats);
+        stats.put("threads", threadStats);
+        return stats;
+    }
+}
@@ -18,18 +18,27 @@ public class GameService {
     
     public GameService() {
         this.dbManager = DatabaseManager.getInstance();
-        this.wsNotifier = new WebSocketNotifier();
+        this.wsNotifier = WebSocketNotifier.getInstance();
         this.gameCache = GameStateCache.getInstance();
-        this.gameThreadPool = Executors.newFixedThreadPool(8); // Increased thread pool
+        this.gameThreadPool = gamePool();
         loadLobbyState(); // Load persistent lobby state
+        wsNotifier.addDisconnectListener(this::onSessionDisconnected);
     }
     
     public GameService(DatabaseManager dbManager, WebSocketNotifier wsNotifier) {
         this.dbManager = dbManager;
         this.wsNotifier = wsNotifier;
         this.gameCache = GameStateCache.getInstance();
-        this.gameThreadPool = Executors.newFixedThreadPool(8);
+        this.gameThreadPool = gamePool();
         loadLobbyState();
+        wsNotifier.addDisconnectListener(this::onSessionDisconnected);
+    }
+    
+    // Shared by every GameService instance; a full queue runs the task on the caller
+    private static ExecutorService gamePool() {
+        ServerConfig config = ServerConfig.getInstance();
+        return ExecutorRegistry.getInstance().fixed("game", config.get(ServerConfig.GAME_THREADS),
+                config.get(ServerConfig.GAME_QUEUE_CAPACITY), ExecutorRegistry.Phase.GAME);
     }
     
     private void loadLobbyState() {
@@ -39,6 +48,17 @@ public class GameService {
         System.out.println("Lobby state initialized (cache-based)");
     }
     
+    // Free the quick-join lobby slot if its holder disconnected
+    private void onSessionDisconnected(String sessionId) {
+        synchronized (lobbyLock) {
+            if (sessionId.equals(waitingPlayerId)) {
+                waitingPlayerId = null;
+                waitingPlayerName = null;
+                System.out.println("Cleared lobby slot held by disconnected session " + sessionId);
+            }
+        }
+    }
+    
     public CompletableFuture<String> joinGame(String sessionId, String playerName) {
         return CompletableFuture.supplyAsync(() -> {
             System.out.println("=== GameService.joinGame START (Cache-Based) ===");
@@ -73,6 +93,10 @@ public class GameService {
                     
                     // Create match in cache
                     gameCache.createGame(matchId, player1Id, sessionId, player1Name, playerName);
+                    GameStateCache.GameState game = gameCache.getGame(matchId);
+                    if (game != null) {
+                        wsNotifier.notifyMatchJoined(game);
+                    }
                     
                     System.out.println("Match created: " + matchId);
                     System.out.println("Player1 (X): " + player1Name + " (" + player1Id + ")");
@@ -89,50 +113,45 @@ public class GameService {
     }
     
     public CompletableFuture<Boolean> makeMove(String sessionId, String matchId, int cellPosition) {
+        return makeMove(sessionId, matchId, cellPosition, -1)
+            .thenApply(result -> result == GameStateCache.MoveResult.APPLIED);
+    }
+    
+    /**
+     * Move with an optional expected state version (-1 for none); a stale
+     * version comes back as VERSION_CONFLICT instead of being applied.
+     */
+    public CompletableFuture<GameStateCache.MoveResult> makeMove(String sessionId, String matchId, int cellPosition,
+                                                                 long expectedVersion) {
         return CompletableFuture.supplyAsync(() -> {
             System.out.println("=== GameService.makeMove START (Cache-Based) ===");
             System.out.println("SessionId: " + sessionId + ", MatchId: " + matchId + ", Cell: " + cellPosition);
             
             // Use cache for fast move processing
-            boolean success = gameCache.makeMove(matchId, cellPosition, sessionId);
+            GameStateCache.MoveResult result = gameCache.tryMove(matchId, cellPosition, sessionId, expectedVersion);
+            boolean success = result == GameStateCache.MoveResult.APPLIED;
             
             if (success) {
                 System.out.println("MOVE SUCCESSFUL: Position " + cellPosition + " for player " + sessionId);
                 
                 // Check if game ended
                 GameStateCache.GameState game = gameCache.getGame(matchId);
-                if (game != null && "finished".equals(game.status)) {
-                    System.out.println("GAME FINISHED: " + game.result);
+                if (game != null && game.isFinished()) {
+                    System.out.println("GAME FINISHED: " + game.result());
+                }
+                
+                // Push the new state so neither seat has to poll for it
+                if (game != null) {
+                    wsNotifier.notifyMatchState(game);
                 }
             } else {
-                System.out.println("MOVE FAILED: Invalid move for position " + cellPosition);
+                System.out.println("MOVE FAILED: " + result + " for position " + cellPosition);
             }
             
-            return success;
+            return result;
         }, gameThreadPool);
     }
     
-    private String checkGameStatus(String board) {
-        // Check rows, columns, diagonals
-        String[][] b = new String[3][3];
-        for (int i = 0; i < 9; i++) {
-            b[i/3][i%3] = String.valueOf(board.charAt(i));
-        }
-        
-        // Check wins
-        for (int i = 0; i < 3; i++) {
-            if (!b[i][0].equals(".") && b[i][0].equals(b[i][1]) && b[i][1].equals(b[i][2])) return b[i][0] + "_wins";
-            if (!b[0][i].equals(".") && b[0][i].equals(b[1][i]) && b[1][i].equals(b[2][i])) return b[0][i] + "_wins";
-        }
-        if (!b[0][0].equals(".") && b[0][0].equals(b[1][1]) && b[1][1].equals(b[2][2])) return b[0][0] + "_wins";
-        if (!b[0][2].equals(".") && b[0][2].equals(b[1][1]) && b[1][1].equals(b[2][0])) return b[0][2] + "_wins";
-        
-        // Check draw
-        if (!board.contains(".")) return "draw";
-        
-        return "ongoing";
-    }
-    
     private void notifyWaiting(String sessionId, String playerName) {
         try {
             JsonObject message = new JsonObject();
@@ -212,10 +231,6 @@ public class GameService {
         }
     }
     
-    public void shutdown() {
-        gameThreadPool.shutdown();
-    }
-    
     // Enhanced notification methods with retry logic and redundancy
     private void notifyWaitingWithRetry(String sessionId, String playerName) {
         try {
@@ -226,13 +241,10 @@ public class GameService {
             message.addProperty("role", "waiting");
             message.addProperty("timestamp", System.currentTimeMillis());
             
-            // Send immediately
+            // Stored as pending by the notifier if the player is offline
             wsNotifier.sendToSession(sessionId, message);
             
-            // Store as pending notification for redundancy
-            wsNotifier.storePendingNotification(sessionId, "waiting", message.toString());
-            
-            System.out.println("Sent waiting notification to " + playerName + " with redundancy");
+            System.out.println("Sent waiting notification to " + playerName);
         } catch (Exception e) {
             System.err.println("Error in notifyWaitingWithRetry: " + e.getMessage());
             // Fallback - store as pending only
@@ -263,9 +275,8 @@ public class GameService {
             p1Message.addProperty("timestamp", System.currentTimeMillis());
             p1Message.addProperty("stateVersion", 1);
             
-            // Send immediately and store as pending
+            // Send immediately; stored as pending if the player is offline
             wsNotifier.sendToSession(player1Id, p1Message);
-            wsNotifier.storePendingNotification(player1Id, "match_start", p1Message.toString());
             
             // Enhanced Player 2 (O) notification with redundancy
             JsonObject p2Message = new JsonObject();
@@ -280,11 +291,10 @@ public class GameService {
             p2Message.addProperty("timestamp", System.currentTimeMillis());
             p2Message.addProperty("stateVersion", 1);
             
-            // Send immediately and store as pending
+            // Send immediately; stored as pending if the player is offline
             wsNotifier.sendToSession(player2Id, p2Message);
-            wsNotifier.storePendingNotification(player2Id, "match_start", p2Message.toString());
             
-            System.out.println("Sent match start notifications with redundancy to both players");
+            System.out.println("Sent match start notifications to both players");
             
         } catch (Exception e) {
             System.err.println("Error in notifyMatchStartWithRetry: " + e.getMessage());
@@ -299,29 +309,45 @@ public class GameService {
     
     // NEW: Get available matches for match browser (Cache-Based)
     public CompletableFuture<JsonObject> getAvailableMatches() {
+        return getAvailableMatches(-1, -1, 0);
+    }
+    
+    /**
+     * One page of open matches, oldest first.
+     *
+     * @param cursor nextCursor of the previous page, or -1 for the first
+     * @param sinceMillis only matches created at or after this time, or -1
+     * @param limit page size; 0 or anything above game.lobbyPageSize uses that
+     */
+    public CompletableFuture<JsonObject> getAvailableMatches(long cursor, long sinceMillis, int limit) {
         return CompletableFuture.supplyAsync(() -> {
             System.out.println("=== GameService.getAvailableMatches START (Cache-Based) ===");
             
+            int maxPage = ServerConfig.getInstance().get(ServerConfig.GAME_LOBBY_PAGE_SIZE);
+            int pageSize = limit > 0 ? Math.min(limit, maxPage) : maxPage;
+            long serverTime = System.currentTimeMillis();
+            
             JsonObject response = new JsonObject();
             response.addProperty("success", true);
             
             com.google.gson.JsonArray matchesArray = new com.google.gson.JsonArray();
             
-            // Get waiting games from cache
-            var waitingGames = gameCache.getWaitingGames();
-            
-            for (var gameState : waitingGames) {
-                JsonObject match = new JsonObject();
-                match.addProperty("matchId", gameState.matchId);
-                match.addProperty("hostName", gameState.player1Name);
-                match.addProperty("createdAt", new java.util.Date(gameState.lastUpdate).toString());
-                match.addProperty("playersCount", 1);
-                match.addProperty("maxPlayers", 2);
-                matchesArray.add(match);
+            // Only the requested slice of the open-match index
+            GameStateCache.LobbyPage page = gameCache.getOpenMatches(cursor, sinceMillis, pageSize);
+            
+            for (var gameState : page.matches) {
+                matchesArray.add(lobbyEntry(gameState));
             }
             
             response.add("matches", matchesArray);
             response.addProperty("totalMatches", matchesArray.size());
+            response.addProperty("totalOpen", page.totalOpen);
+            response.addProperty("hasMore", page.nextCursor >= 0);
+            if (page.nextCursor >= 0) {
+                response.addProperty("nextCursor", page.nextCursor);
+            }
+            // Pass back as ?since= on the next refresh to get only newer matches
+            response.addProperty("serverTime", serverTime);
             
             System.out.println("Found " + matchesArray.size() + " available matches (cache-based)");
             return response;
@@ -329,6 +355,22 @@ public class GameService {
         }, gameThreadPool);
     }
     
+    /**
+     * One open match as listed by /api/matches and pushed in lobby deltas.
+     */
+    public static JsonObject lobbyEntry(GameStateCache.GameState gameState) {
+        JsonObject match = new JsonObject();
+        match.addProperty("matchId", gameState.matchId);
+        match.addProperty("hostName", gameState.player1Name);
+        match.addProperty("createdAt", java.time.Instant.ofEpochMilli(gameState.createdAt).toString());
+        match.addProperty("createdAtMillis", gameState.createdAt);
+        match.addProperty("playersCount", 1);
+        match.addProperty("maxPlayers", 2);
+        // Lets the lobby steer players away from hosts on a bad link
+        match.addProperty("hostConnectionQuality", LivenessTracker.getInstance().getQuality(gameState.sessionId1));
+        return match;
+    }
+    
     // NEW: Create a new match that others can join (Cache-Based)
     public CompletableFuture<String> createMatch(String sessionId, String playerName, String matchName) {
         return CompletableFuture.supplyAsync(() -> {
@@ -344,6 +386,13 @@ public class GameService {
             // Create match in cache with waiting status (only one player initially)
             gameCache.createGameWaiting(matchId, sessionId, playerName);
             
+            // Host hears about the joiner on the match topic; browsers get a lobby delta
+            wsNotifier.subscribe(TopicRegistry.matchTopic(matchId), sessionId);
+            GameStateCache.GameState game = gameCache.getGame(matchId);
+            if (game != null) {
+                wsNotifier.notifyLobbyCreated(game);
+            }
+            
             System.out.println("Created match: " + matchId + " hosted by " + playerName);
             
             return matchId;
@@ -367,8 +416,8 @@ public class GameService {
                 return false;
             }
             
-            if (!"waiting".equals(game.status)) {
-                System.out.println("JOIN SPECIFIC MATCH FAILED: Match status is " + game.status + " (not waiting)");
+            if (!game.isWaiting()) {
+                System.out.println("JOIN SPECIFIC MATCH FAILED: Match status is " + game.status() + " (not waiting)");
                 return false;
             }
             
@@ -382,16 +431,20 @@ public class GameService {
                 return false;
             }
             
-            // Join the match as player 2
-            game.sessionId2 = sessionId;
-            game.player2Name = playerName;
-            game.status = "active";
-            game.lastUpdate = System.currentTimeMillis();
+            // Join the match as player 2; a concurrent joiner loses the CAS
+            if (!gameCache.joinGame(game, sessionId, playerName)) {
+                System.out.println("JOIN SPECIFIC MATCH FAILED: Match was joined concurrently");
+                return false;
+            }
             
             System.out.println("Successfully joined match: " + matchId);
             System.out.println("Player1 (X): " + game.player1Name + " (" + game.sessionId1 + ")");
             System.out.println("Player2 (O): " + playerName + " (" + sessionId + ")");
             
+            // Host learns about the opponent by push instead of polling
+            wsNotifier.notifyMatchJoined(game);
+            wsNotifier.notifyLobbyRemoved(matchId);
+            
             return true;
         }, gameThreadPool);
     }
@@ -416,36 +469,44 @@ public class GameService {
             
             if (game != null) {
                 System.out.println("Found active match: " + game.matchId);
-                System.out.println("Status: " + game.status + ", Turn: " + game.currentPlayer);
-                System.out.println("Board: " + game.board);
+                // One snapshot so board, turn and version agree
+                long state = game.state();
+                String board = GameStateCache.GameState.boardOf(state);
+                String currentTurn = GameStateCache.GameState.currentPlayerOf(state);
+                int status = GameStateCache.GameState.statusOf(state);
+                String result = GameStateCache.GameState.resultOf(state);
+                System.out.println("Status: " + GameStateCache.GameState.statusNameOf(state) + ", Turn: " + currentTurn);
+                System.out.println("Board: " + board);
                 
                 response.addProperty("hasMatch", true);
                 response.addProperty("matchId", game.matchId);
-                response.addProperty("board", game.board);
-                response.addProperty("status", game.status);
-                response.addProperty("result", game.result != null ? game.result : "ongoing");
+                response.addProperty("board", board);
+                response.addProperty("status", GameStateCache.GameState.statusNameOf(state));
+                response.addProperty("result", result);
+                response.addProperty("version", GameStateCache.GameState.versionOf(state));
                 
                 // Determine if it's this player's turn
                 boolean isPlayerOne = sessionId.equals(game.sessionId1);
                 String playerMark = isPlayerOne ? "X" : "O";
                 boolean isMyTurn = false;
                 
-                if ("active".equals(game.status)) {
-                    isMyTurn = (isPlayerOne && "X".equals(game.currentPlayer)) || 
-                              (!isPlayerOne && "O".equals(game.currentPlayer));
+                if (status == GameStateCache.GameState.ACTIVE) {
+                    isMyTurn = isPlayerOne == GameStateCache.GameState.xToMoveOf(state);
                 }
                 
                 response.addProperty("yourTurn", isMyTurn);
                 response.addProperty("yourMark", playerMark);
-                response.addProperty("currentTurn", game.currentPlayer);
+                response.addProperty("currentTurn", currentTurn);
                 
                 String message;
-                if ("waiting".equals(game.status)) {
+                if (status == GameStateCache.GameState.WAITING) {
                     message = "Waiting for opponent to join...";
-                } else if ("active".equals(game.status)) {
+                } else if (status == GameStateCache.GameState.ACTIVE) {
                     message = isMyTurn ? "Your turn!" : "Waiting for opponent...";
+                } else if (status == GameStateCache.GameState.CLOSED) {
+                    message = "Match closed: host left";
                 } else {
-                    message = "Game finished: " + game.result;
+                    message = "Game finished: " + result;
                 }
                 response.addProperty("message", message);
                 
@@ -1,13 +1,16 @@
 package com.stanstate.ttt;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * In-memory cache for game states to improve performance
@@ -17,44 +20,221 @@ public class GameStateCache {
     private static GameStateCache instance;
     private final ConcurrentHashMap<String, GameState> activeGames;
     private final ConcurrentHashMap<String, PlayerSession> activeSessions;
-    private final DatabaseManager dbManager;
+    // sessionId -> matchId of the session's latest match. Set on create and
+    // join; a finished match stays indexed (polls still show its result)
+    // until the session starts another match or the match is evicted.
+    private final ConcurrentHashMap<String, String> sessionMatches;
+    // Open (waiting) matches by lobby key: creation time in micros, bumped
+    // to stay unique, so iteration is creation order and a key is a cursor
+    private final ConcurrentSkipListMap<Long, GameState> openMatches;
+    private final AtomicLong lastLobbyKey = new AtomicLong();
+    // Small numeric handles for the binary protocol (handle -> matchId)
+    private final ConcurrentHashMap<Integer, String> matchHandles;
+    private final AtomicInteger nextHandle = new AtomicInteger();
+    private final AtomicLong versionConflicts = new AtomicLong();
+    private final AtomicLong casRetries = new AtomicLong();
+    private final CompletedMatchWriter matchWriter;
     private final ScheduledExecutorService syncScheduler;
+    private final ScheduledFuture<?> cleanupTask;
     
-    // Game state cache entry
+    // Game state cache entry. Board, status, outcome and version live in one
+    // packed long that only changes by compare-and-set, so every transition
+    // is atomic and bumps the version; the string accessors are for the API
+    // edge only.
     public static class GameState {
-        public String matchId;
-        public String sessionId1;
-        public String sessionId2;
-        public String board;
-        public String currentPlayer;
-        public String status;
-        public String result;
-        public long lastUpdate;
-        public String player1Name;
-        public String player2Name;
+        public static final int WAITING = 0;
+        public static final int ACTIVE = 1;
+        public static final int FINISHED = 2;
+        // Host left before anyone joined; the match is being removed
+        public static final int CLOSED = 3;
+        private static final String[] STATUS_NAMES = {"waiting", "active", "finished", "closed"};
+
+        // version:32 | unused:9 | outcome:3 | status:2 | oMask:9 | xMask:9
+        private static final int O_SHIFT = 9;
+        private static final int STATUS_SHIFT = 18;
+        private static final int OUTCOME_SHIFT = 20;
+        private static final int VERSION_SHIFT = 32;
+
+        public final String matchId;
+        public final String sessionId1;
+        public volatile String sessionId2;
+        public volatile long lastUpdate;
+        public final long createdAt;
+        // Key in the open-match index; 0 for matches that never waited
+        long lobbyKey;
+        public final String player1Name;
+        public volatile String player2Name;
+        public int handle;
+        private final AtomicLong state;
         
         public GameState(String matchId, String sessionId1, String sessionId2, 
                         String player1Name, String player2Name) {
+            this(matchId, sessionId1, sessionId2, player1Name, player2Name, ACTIVE);
+        }
+        
+        GameState(String matchId, String sessionId1, String sessionId2,
+                  String player1Name, String player2Name, int status) {
             this.matchId = matchId;
             this.sessionId1 = sessionId1;
             this.sessionId2 = sessionId2;
             this.player1Name = player1Name;
             this.player2Name = player2Name;
-            this.board = ".........";
-            this.currentPlayer = "X";
-            this.status = "active";
-            this.result = "ongoing";
-            this.lastUpdate = System.currentTimeMillis();
+            // Version 1 matches the game_matches.state_version default
+            this.state = new AtomicLong(pack(0, 0, status, Bitboard.ONGOING, 1));
+            this.createdAt = System.currentTimeMillis();
+            this.lastUpdate = createdAt;
+        }
+        
+        static long pack(int xMask, int oMask, int status, int outcome, long version) {
+            return (version << VERSION_SHIFT)
+                | ((long) outcome << OUTCOME_SHIFT)
+                | ((long) status << STATUS_SHIFT)
+                | ((long) oMask << O_SHIFT)
+                | xMask;
+        }
+        
+        public static int xMaskOf(long state) {
+            return (int) state & Bitboard.FULL;
+        }
+        
+        public static int oMaskOf(long state) {
+            return (int) (state >>> O_SHIFT) & Bitboard.FULL;
+        }
+        
+        public static int statusOf(long state) {
+            return (int) (state >>> STATUS_SHIFT) & 0x3;
+        }
+        
+        public static int outcomeOf(long state) {
+            return (int) (state >>> OUTCOME_SHIFT) & 0x7;
+        }
+        
+        public static long versionOf(long state) {
+            return state >>> VERSION_SHIFT;
+        }
+        
+        // Player to move; once finished, the player who made the last move
+        public static boolean xToMoveOf(long state) {
+            boolean xNext = Bitboard.xToMove(xMaskOf(state), oMaskOf(state));
+            return statusOf(state) == FINISHED ? !xNext : xNext;
+        }
+        
+        public static String boardOf(long state) {
+            return Bitboard.render(xMaskOf(state), oMaskOf(state));
+        }
+        
+        public static String currentPlayerOf(long state) {
+            return xToMoveOf(state) ? "X" : "O";
+        }
+        
+        public static String statusNameOf(long state) {
+            return STATUS_NAMES[statusOf(state)];
+        }
+        
+        public static String resultOf(long state) {
+            return Bitboard.resultName(outcomeOf(state));
+        }
+        
+        /**
+         * The current packed state. Read it once and use the static
+         * accessors when several fields must come from the same version.
+         */
+        public long state() {
+            return state.get();
+        }
+        
+        boolean compareAndSet(long expected, long next) {
+            return state.compareAndSet(expected, next);
+        }
+        
+        /**
+         * Waiting -> active when the second player joins. Only one joiner
+         * can win.
+         */
+        boolean activate() {
+            long current = state.get();
+            return statusOf(current) == WAITING
+                && state.compareAndSet(current, pack(0, 0, ACTIVE, Bitboard.ONGOING, versionOf(current) + 1));
+        }
+        
+        /**
+         * Waiting -> closed when the host leaves first. Races with
+         * {@link #activate()} on the same word, so either the joiner or the
+         * leaving host wins, never both.
+         */
+        boolean close() {
+            long current = state.get();
+            return statusOf(current) == WAITING
+                && state.compareAndSet(current, pack(0, 0, CLOSED, Bitboard.ONGOING, versionOf(current) + 1));
+        }
+        
+        public long version() {
+            return versionOf(state.get());
+        }
+        
+        public boolean isWaiting() {
+            return statusOf(state.get()) == WAITING;
+        }
+        
+        public boolean isActive() {
+            return statusOf(state.get()) == ACTIVE;
+        }
+        
+        public boolean isFinished() {
+            return statusOf(state.get()) == FINISHED;
+        }
+        
+        public boolean xToMove() {
+            return xToMoveOf(state.get());
+        }
+        
+        public String board() {
+            return boardOf(state.get());
+        }
+        
+        public String currentPlayer() {
+            return currentPlayerOf(state.get());
+        }
+        
+        public String status() {
+            return statusNameOf(state.get());
+        }
+        
+        public String result() {
+            return resultOf(state.get());
+        }
+    }
+    
+    /**
+     * One page of open matches, oldest first. nextCursor is -1 on the last
+     * page.
+     */
+    public static final class LobbyPage {
+        public final List<GameState> matches;
+        public final long nextCursor;
+        public final int totalOpen;
+        
+        LobbyPage(List<GameState> matches, long nextCursor, int totalOpen) {
+            this.matches = matches;
+            this.nextCursor = nextCursor;
+            this.totalOpen = totalOpen;
         }
     }
     
+    /**
+     * Outcome of {@link GameStateCache#tryMove}. Only APPLIED changed the
+     * board; VERSION_CONFLICT means the caller's expected version is stale.
+     */
+    public enum MoveResult {
+        APPLIED, NO_MATCH, NOT_ACTIVE, INVALID_CELL, OCCUPIED, NOT_YOUR_TURN, VERSION_CONFLICT
+    }
+    
     // Player session cache entry
     public static class PlayerSession {
         public String sessionId;
         public String playerName;
         public String connectionStatus;
         public long lastHeartbeat;
-        public String currentMatch;
         
         public PlayerSession(String sessionId, String playerName) {
             this.sessionId = sessionId;
@@ -67,14 +247,18 @@ public class GameStateCache {
     private GameStateCache() {
         this.activeGames = new ConcurrentHashMap<>();
         this.activeSessions = new ConcurrentHashMap<>();
-        this.dbManager = DatabaseManager.getInstance();
-        this.syncScheduler = Executors.newScheduledThreadPool(2);
+        this.sessionMatches = new ConcurrentHashMap<>();
+        this.openMatches = new ConcurrentSkipListMap<>();
+        this.matchHandles = new ConcurrentHashMap<>();
+        this.matchWriter = CompletedMatchWriter.getInstance();
+        this.syncScheduler = ExecutorRegistry.getInstance().maintenance();
         
         // Enable selective database sync for completed games only
         // No background sync - only sync when games finish
         
         // Keep session cleanup for expired sessions every 5 minutes
-        syncScheduler.scheduleAtFixedRate(this::cleanupExpiredSessions, 300, 300, TimeUnit.SECONDS);
+        this.cleanupTask = syncScheduler.scheduleAtFixedRate(this::cleanupExpiredSessions, 300, 300, TimeUnit.SECONDS);
+        ExecutorRegistry.getInstance().onShutdown(ExecutorRegistry.Phase.GAME, "GameStateCache", this::shutdown);
         
         System.out.println("GameStateCache initialized with SELECTIVE database sync for completed games");
     }
@@ -90,25 +274,21 @@ public class GameStateCache {
     public void createGame(String matchId, String sessionId1, String sessionId2, 
                           String player1Name, String player2Name) {
         GameState game = new GameState(matchId, sessionId1, sessionId2, player1Name, player2Name);
+        assignHandle(game);
         activeGames.put(matchId, game);
-        
-        // Update player sessions
-        PlayerSession session1 = activeSessions.get(sessionId1);
-        PlayerSession session2 = activeSessions.get(sessionId2);
-        if (session1 != null) session1.currentMatch = matchId;
-        if (session2 != null) session2.currentMatch = matchId;
+        indexSession(sessionId1, matchId);
+        indexSession(sessionId2, matchId);
         
         System.out.println("Created active game: " + matchId + " with players " + player1Name + " vs " + player2Name);
     }
     
     public void createGameWaiting(String matchId, String sessionId1, String player1Name) {
-        GameState game = new GameState(matchId, sessionId1, null, player1Name, null);
-        game.status = "waiting";  // Set status to waiting
+        GameState game = new GameState(matchId, sessionId1, null, player1Name, null, GameState.WAITING);
+        assignHandle(game);
+        game.lobbyKey = lastLobbyKey.updateAndGet(prev -> Math.max(prev + 1, game.createdAt * 1000));
         activeGames.put(matchId, game);
-        
-        // Update player session
-        PlayerSession session1 = activeSessions.get(sessionId1);
-        if (session1 != null) session1.currentMatch = matchId;
+        indexSession(sessionId1, matchId);
+        openMatches.put(game.lobbyKey, game);
         
         System.out.println("Created waiting game: " + matchId + " hosted by " + player1Name);
     }
@@ -117,267 +297,213 @@ public class GameStateCache {
         return activeGames.get(matchId);
     }
     
-    public GameState getGameBySessionId(String sessionId) {
-        for (GameState game : activeGames.values()) {
-            if (sessionId.equals(game.sessionId1) || sessionId.equals(game.sessionId2)) {
-                return game;
-            }
-        }
-        return null;
+    public GameState getGameByHandle(int handle) {
+        String matchId = matchHandles.get(handle);
+        return matchId != null ? activeGames.get(matchId) : null;
     }
     
-    public java.util.List<GameState> getWaitingGames() {
-        return activeGames.values().stream()
-            .filter(game -> "waiting".equals(game.status))
-            .collect(java.util.stream.Collectors.toList());
+    private void assignHandle(GameState game) {
+        // Skip 0 and any handle still held by a live match after wrap-around
+        int handle;
+        do {
+            handle = nextHandle.incrementAndGet();
+        } while (handle == 0 || matchHandles.putIfAbsent(handle, game.matchId) != null);
+        game.handle = handle;
     }
     
-    public boolean makeMove(String matchId, int position, String playerId) {
-        GameState game = activeGames.get(matchId);
-        if (game == null || !"active".equals(game.status)) {
-            return false;
-        }
-        
-        // Validate move
-        if (position < 0 || position > 8) {
+    private void releaseHandle(GameState game) {
+        matchHandles.remove(game.handle, game.matchId);
+    }
+    
+    /**
+     * Second player takes the open seat: waiting -> active, then the seat and
+     * index are filled in. False if another joiner won the transition.
+     */
+    public boolean joinGame(GameState game, String sessionId, String playerName) {
+        if (!game.activate()) {
             return false;
         }
-        
-        if (game.board.charAt(position) != '.') {
-            return false; // Position already taken
-        }
-        
-        // Check if it's the player's turn
-        String expectedPlayer = "X".equals(game.currentPlayer) ? game.sessionId1 : game.sessionId2;
-        
-        if (!playerId.equals(expectedPlayer)) {
-            return false; // Not this player's turn
-        }
-        
-        // Make the move
-        StringBuilder boardBuilder = new StringBuilder(game.board);
-        boardBuilder.setCharAt(position, game.currentPlayer.charAt(0));
-        game.board = boardBuilder.toString();
-        
-        // Check for game end
-        String result = checkGameResult(game.board);
-        if (!"ongoing".equals(result)) {
-            game.status = "finished";
-            game.result = result;
-            
-            // Save completed game to database and update player stats
-            saveCompletedGameToDatabase(game);
-            System.out.println("Game " + matchId + " finished with result: " + result);
-        } else {
-            // Switch turns
-            game.currentPlayer = "X".equals(game.currentPlayer) ? "O" : "X";
-        }
-        
+        game.sessionId2 = sessionId;
+        game.player2Name = playerName;
         game.lastUpdate = System.currentTimeMillis();
-        System.out.println("Move made in game " + matchId + ": position " + position + " by " + playerId);
+        indexSession(sessionId, game.matchId);
+        openMatches.remove(game.lobbyKey, game);
         return true;
     }
     
-    public void updatePlayerSession(String sessionId, String playerName) {
-        PlayerSession session = activeSessions.computeIfAbsent(sessionId, 
-            k -> new PlayerSession(sessionId, playerName));
-        session.lastHeartbeat = System.currentTimeMillis();
-        session.connectionStatus = "connected";
-        if (playerName != null) {
-            session.playerName = playerName;
+    // O(1) via the session index instead of scanning every cached match
+    public GameState getGameBySessionId(String sessionId) {
+        String matchId = sessionMatches.get(sessionId);
+        if (matchId == null) {
+            return null;
+        }
+        GameState game = activeGames.get(matchId);
+        if (game == null) {
+            sessionMatches.remove(sessionId, matchId); // evicted without unindexing
         }
+        return game;
     }
     
-    private String checkGameResult(String board) {
-        // Check rows
-        for (int i = 0; i < 3; i++) {
-            if (board.charAt(i*3) != '.' && 
-                board.charAt(i*3) == board.charAt(i*3+1) && 
-                board.charAt(i*3+1) == board.charAt(i*3+2)) {
-                return board.charAt(i*3) + "_wins";
-            }
-        }
-        
-        // Check columns
-        for (int i = 0; i < 3; i++) {
-            if (board.charAt(i) != '.' && 
-                board.charAt(i) == board.charAt(i+3) && 
-                board.charAt(i+3) == board.charAt(i+6)) {
-                return board.charAt(i) + "_wins";
-            }
+    private void indexSession(String sessionId, String matchId) {
+        if (sessionId != null) {
+            sessionMatches.put(sessionId, matchId);
         }
-        
-        // Check diagonals
-        if (board.charAt(0) != '.' && board.charAt(0) == board.charAt(4) && board.charAt(4) == board.charAt(8)) {
-            return board.charAt(0) + "_wins";
-        }
-        if (board.charAt(2) != '.' && board.charAt(2) == board.charAt(4) && board.charAt(4) == board.charAt(6)) {
-            return board.charAt(2) + "_wins";
+    }
+    
+    // Conditional removes, so a session that already moved on keeps its new match
+    private void removeGame(GameState game) {
+        activeGames.remove(game.matchId, game);
+        releaseHandle(game);
+        unindexSessions(game);
+        openMatches.remove(game.lobbyKey, game);
+    }
+    
+    private void unindexSessions(GameState game) {
+        if (game.sessionId1 != null) {
+            sessionMatches.remove(game.sessionId1, game.matchId);
         }
-        
-        // Check for draw
-        if (!board.contains(".")) {
-            return "draw";
+        String sessionId2 = game.sessionId2;
+        if (sessionId2 != null) {
+            sessionMatches.remove(sessionId2, game.matchId);
         }
-        
-        return "ongoing";
     }
     
-    private void syncToDatabase() {
-        try {
-            System.out.println("Syncing " + activeGames.size() + " games to database...");
-            
-            for (GameState game : activeGames.values()) {
-                try (Connection conn = dbManager.getConnection()) {
-                    PreparedStatement stmt = conn.prepareStatement(
-                        "MERGE INTO game_matches " +
-                        "(match_id, player1_session, player2_session, status, current_turn, board, result, last_move_at) " +
-                        "KEY(match_id) VALUES (?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)"
-                    );
-                    stmt.setString(1, game.matchId);
-                    stmt.setString(2, game.sessionId1);
-                    stmt.setString(3, game.sessionId2);
-                    stmt.setString(4, game.status);
-                    stmt.setString(5, game.currentPlayer);
-                    stmt.setString(6, game.board);
-                    stmt.setString(7, game.result);
-                    stmt.executeUpdate();
-                } catch (Exception e) {
-                    System.err.println("Error syncing game " + game.matchId + ": " + e.getMessage());
-                }
-            }
-            
-            // Sync player sessions
-            for (PlayerSession session : activeSessions.values()) {
-                try (Connection conn = dbManager.getConnection()) {
-                    PreparedStatement stmt = conn.prepareStatement(
-                        "MERGE INTO player_sessions " +
-                        "(session_id, player_name, connection_status, last_heartbeat) " +
-                        "KEY(session_id) VALUES (?, ?, ?, CURRENT_TIMESTAMP)"
-                    );
-                    stmt.setString(1, session.sessionId);
-                    stmt.setString(2, session.playerName);
-                    stmt.setString(3, session.connectionStatus);
-                    stmt.executeUpdate();
-                } catch (Exception e) {
-                    System.err.println("Error syncing session " + session.sessionId + ": " + e.getMessage());
-                }
-            }
-            
-        } catch (Exception e) {
-            System.err.println("Error during database sync: " + e.getMessage());
-        }
+    // Oldest first
+    public List<GameState> getWaitingGames() {
+        return new ArrayList<>(openMatches.values());
     }
     
-    // Save completed game and update player statistics
-    private void saveCompletedGameToDatabase(GameState game) {
-        try (Connection conn = dbManager.getConnection()) {
-            // Ensure player sessions exist for FK integrity
-            if (game.sessionId1 != null) {
-                PreparedStatement sessionUpsert1 = conn.prepareStatement(
-                    "MERGE INTO player_sessions (session_id, player_name, connection_status, last_heartbeat) " +
-                    "KEY(session_id) VALUES (?, ?, 'connected', CURRENT_TIMESTAMP)"
-                );
-                sessionUpsert1.setString(1, game.sessionId1);
-                sessionUpsert1.setString(2, game.player1Name);
-                sessionUpsert1.executeUpdate();
+    /**
+     * Open matches after {@code cursor} (a nextCursor from an earlier page,
+     * or -1) created at or after {@code sinceMillis} (or -1), at most
+     * {@code limit} of them. Walks only the requested slice of the index.
+     */
+    public LobbyPage getOpenMatches(long cursor, long sinceMillis, int limit) {
+        long from = Math.max(cursor >= 0 ? cursor + 1 : 0, sinceMillis > 0 ? sinceMillis * 1000 : 0);
+        List<GameState> page = new ArrayList<>(Math.min(limit, 64));
+        long nextCursor = -1;
+        for (Map.Entry<Long, GameState> e : openMatches.tailMap(from, true).entrySet()) {
+            if (page.size() == limit) {
+                nextCursor = page.get(page.size() - 1).lobbyKey;
+                break;
             }
-            if (game.sessionId2 != null) {
-                PreparedStatement sessionUpsert2 = conn.prepareStatement(
-                    "MERGE INTO player_sessions (session_id, player_name, connection_status, last_heartbeat) " +
-                    "KEY(session_id) VALUES (?, ?, 'connected', CURRENT_TIMESTAMP)"
-                );
-                sessionUpsert2.setString(1, game.sessionId2);
-                sessionUpsert2.setString(2, game.player2Name);
-                sessionUpsert2.executeUpdate();
+            // Joined a moment ago; the index entry is about to go
+            if (e.getValue().isWaiting()) {
+                page.add(e.getValue());
             }
-
-            // Save game match to database
-            PreparedStatement matchStmt = conn.prepareStatement(
-                "MERGE INTO game_matches " +
-                "(match_id, player1_session, player2_session, status, current_turn, board, result, last_move_at) " +
-                "KEY(match_id) VALUES (?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)"
-            );
-            matchStmt.setString(1, game.matchId);
-            matchStmt.setString(2, game.sessionId1);
-            matchStmt.setString(3, game.sessionId2);
-            matchStmt.setString(4, game.status);
-            matchStmt.setString(5, game.currentPlayer);
-            matchStmt.setString(6, game.board);
-            matchStmt.setString(7, game.result);
-            matchStmt.executeUpdate();
-            
-            System.out.println("Saved completed game " + game.matchId + " to database");
-            
-            // Update player statistics
-            updatePlayerStats(conn, game.player1Name, game.result, "X");
-            updatePlayerStats(conn, game.player2Name, game.result, "O");
-            
-        } catch (Exception e) {
-            System.err.println("Error saving completed game " + game.matchId + ": " + e.getMessage());
-            e.printStackTrace();
         }
+        return new LobbyPage(page, nextCursor, openMatches.size());
     }
     
-    // Update individual player statistics
-    private void updatePlayerStats(Connection conn, String playerName, String gameResult, String playerMark) {
-        try {
-            // Create or get existing stats
-            PreparedStatement checkStmt = conn.prepareStatement(
-                "SELECT * FROM player_stats WHERE player_name = ?"
-            );
-            checkStmt.setString(1, playerName);
-            ResultSet rs = checkStmt.executeQuery();
-            
-            int totalGames = 0;
-            int wins = 0;
-            int losses = 0;
-            int draws = 0;
+    public boolean makeMove(String matchId, int position, String playerId) {
+        return tryMove(matchId, position, playerId, -1) == MoveResult.APPLIED;
+    }
+    
+    /**
+     * Apply a move with compare-and-set on the match's packed state.
+     *
+     * @param expectedVersion the state version the caller saw, or -1 to
+     *        accept whatever is current. A racing move that wins first makes
+     *        a versioned call fail with VERSION_CONFLICT; an unversioned call
+     *        is re-validated against the new state (so a double-submitted
+     *        move comes back OCCUPIED or NOT_YOUR_TURN).
+     */
+    public MoveResult tryMove(String matchId, int position, String playerId, long expectedVersion) {
+        GameState game = activeGames.get(matchId);
+        if (game == null) {
+            return MoveResult.NO_MATCH;
+        }
+        
+        // Validate move
+        if (position < 0 || position > 8) {
+            return MoveResult.INVALID_CELL;
+        }
+        int bit = Bitboard.bit(position);
+        
+        while (true) {
+            long current = game.state();
+            if (expectedVersion >= 0 && GameState.versionOf(current) != expectedVersion) {
+                versionConflicts.incrementAndGet();
+                return MoveResult.VERSION_CONFLICT;
+            }
+            if (GameState.statusOf(current) != GameState.ACTIVE) {
+                return MoveResult.NOT_ACTIVE;
+            }
             
-            if (rs.next()) {
-                totalGames = rs.getInt("total_games");
-                wins = rs.getInt("wins");
-                losses = rs.getInt("losses");
-                draws = rs.getInt("draws");
+            int xMask = GameState.xMaskOf(current);
+            int oMask = GameState.oMaskOf(current);
+            if (((xMask | oMask) & bit) != 0) {
+                return MoveResult.OCCUPIED;
             }
             
-            // Update stats based on game result
-            totalGames++;
+            // Check if it's the player's turn
+            boolean xToMove = Bitboard.xToMove(xMask, oMask);
+            String expectedPlayer = xToMove ? game.sessionId1 : game.sessionId2;
+            if (!playerId.equals(expectedPlayer)) {
+                return MoveResult.NOT_YOUR_TURN;
+            }
             
-            if ("draw".equals(gameResult)) {
-                draws++;
-            } else if (gameResult.startsWith(playerMark)) {
-                // Player won (result is "X_wins" or "O_wins")
-                wins++;
+            // Make the move; the turn follows from the mask counts
+            if (xToMove) {
+                xMask |= bit;
             } else {
-                // Player lost
-                losses++;
+                oMask |= bit;
             }
+            int outcome = Bitboard.outcome(xMask, oMask);
+            int status = outcome != Bitboard.ONGOING ? GameState.FINISHED : GameState.ACTIVE;
+            long next = GameState.pack(xMask, oMask, status, outcome, GameState.versionOf(current) + 1);
             
-            // Calculate win rate
-            double winRate = totalGames > 0 ? (double) wins / totalGames : 0.0;
-            
-            // Save updated stats
-            PreparedStatement updateStmt = conn.prepareStatement(
-                "MERGE INTO player_stats " +
-                "(player_name, total_games, wins, losses, draws, win_rate, last_game) " +
-                "KEY(player_name) VALUES (?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)"
-            );
-            updateStmt.setString(1, playerName);
-            updateStmt.setInt(2, totalGames);
-            updateStmt.setInt(3, wins);
-            updateStmt.setInt(4, losses);
-            updateStmt.setInt(5, draws);
-            updateStmt.setDouble(6, winRate);
-            updateStmt.executeUpdate();
-            
-            System.out.println("Updated stats for " + playerName + ": " + wins + "W-" + losses + "L-" + draws + "D (WR: " + String.format("%.1f%%", winRate * 100) + ")");
+            if (!game.compareAndSet(current, next)) {
+                casRetries.incrementAndGet();
+                continue; // another move got in first; re-check against it
+            }
             
-        } catch (Exception e) {
-            System.err.println("Error updating stats for " + playerName + ": " + e.getMessage());
+            game.lastUpdate = System.currentTimeMillis();
+            if (status == GameState.FINISHED) {
+                // Only the move that finished the game gets here, so this runs
+                // once; the writer persists it off the request thread
+                matchWriter.enqueue(game, next);
+                System.out.println("Game " + matchId + " finished with result: " + GameState.resultOf(next));
+            }
+            System.out.println("Move made in game " + matchId + ": position " + position + " by " + playerId);
+            return MoveResult.APPLIED;
         }
     }
     
+    public void updatePlayerSession(String sessionId, String playerName) {
+        PlayerSession session = activeSessions.computeIfAbsent(sessionId, 
+            k -> new PlayerSession(sessionId, playerName));
+        session.lastHeartbeat = System.currentTimeMillis();
+        session.connectionStatus = "connected";
+        if (playerName != null) {
+            session.playerName = playerName;
+        }
+    }
+    
+    /**
+     * Called when a session's socket goes away. Marks the cached session as
+     * disconnected and drops a lobby match it was still hosting.
+     *
+     * @return the dropped lobby match, or null if there was none
+     */
+    public GameState markSessionDisconnected(String sessionId) {
+        PlayerSession session = activeSessions.get(sessionId);
+        if (session != null) {
+            session.connectionStatus = "disconnected";
+        }
+        
+        // Found through the match index, so a host with no cached session
+        // (expired, or never cached) still has its lobby match closed
+        GameState game = getGameBySessionId(sessionId);
+        // A joiner that activated first keeps the match; it is active now
+        if (game != null && sessionId.equals(game.sessionId1) && game.close()) {
+            removeGame(game);
+            System.out.println("Removed waiting game " + game.matchId + " after host " + sessionId + " disconnected");
+            return game;
+        }
+        return null;
+    }
+    
     private void cleanupExpiredSessions() {
         long expiredThreshold = System.currentTimeMillis() - (5 * 60 * 1000); // 5 minutes
         
@@ -394,25 +520,38 @@ public class GameStateCache {
         long gameExpiredThreshold = System.currentTimeMillis() - (60 * 60 * 1000); // 1 hour
         activeGames.entrySet().removeIf(entry -> {
             GameState game = entry.getValue();
-            if ("finished".equals(game.status) && game.lastUpdate < gameExpiredThreshold) {
+            if (game.isFinished() && game.lastUpdate < gameExpiredThreshold) {
                 System.out.println("Removing old finished game: " + game.matchId);
+                releaseHandle(game);
+                unindexSessions(game);
                 return true;
             }
             return false;
         });
     }
     
-    public void shutdown() {
-        if (syncScheduler != null) {
-            syncScheduler.shutdown();
-            try {
-                if (!syncScheduler.awaitTermination(10, TimeUnit.SECONDS)) {
-                    syncScheduler.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                syncScheduler.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
+    public Map<String, Object> getStats() {
+        int waiting = 0;
+        int active = 0;
+        for (GameState game : activeGames.values()) {
+            int status = GameState.statusOf(game.state());
+            if (status == GameState.WAITING) waiting++;
+            else if (status == GameState.ACTIVE) active++;
         }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("games", activeGames.size());
+        stats.put("waiting", waiting);
+        stats.put("active", active);
+        stats.put("sessions", activeSessions.size());
+        stats.put("indexedSessions", sessionMatches.size());
+        stats.put("openMatches", openMatches.size());
+        stats.put("versionConflicts", versionConflicts.get());
+        stats.put("casRetries", casRetries.get());
+        return stats;
+    }
+    
+    // The scheduler is shared (ExecutorRegistry owns it); only stop our task
+    public void shutdown() {
+        cleanupTask.cancel(false);
     }
 }
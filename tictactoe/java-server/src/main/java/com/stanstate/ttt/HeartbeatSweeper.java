@@ -0,0 +1,182 @@
+package com.stanstate.ttt;
+
+import org.java_websocket.WebSocket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Spreads native pings over the heartbeat interval.
+ *
+ * Sessions are hashed into notifier.heartbeatBuckets buckets. Bucket k is due
+ * at k/N of the way through each notifier.heartbeatIntervalSeconds period, so
+ * every tick pings 1/N of the sockets instead of all of them at once. A small
+ * random jitter keeps ticks from lining up with other periodic work. After a
+ * bucket is pinged, the liveness numbers of its sessions (the pongs from the
+ * previous round) are written as one batch.
+ */
+public class HeartbeatSweeper {
+    private static final double JITTER_FRACTION = 0.1;
+
+    private final List<Set<String>> buckets;
+    private final Function<String, WebSocket> lookup;
+    private final ScheduledExecutorService scheduler;
+
+    private int nextBucket;
+    private long nextDeadline;
+
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong pingsSent = new AtomicLong();
+    private final AtomicLong pingFailures = new AtomicLong();
+    private final AtomicLong totalSweepMicros = new AtomicLong();
+    private final AtomicLong totalLagMs = new AtomicLong();
+    private volatile long lastSweepMicros;
+    private volatile long maxSweepMicros;
+    private volatile long lastLagMs;
+    private volatile long maxLagMs;
+
+    public HeartbeatSweeper(ScheduledExecutorService scheduler, Function<String, WebSocket> lookup) {
+        int count = ServerConfig.getInstance().get(ServerConfig.NOTIFIER_HEARTBEAT_BUCKETS);
+        this.buckets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            buckets.add(ConcurrentHashMap.newKeySet());
+        }
+        this.scheduler = scheduler;
+        this.lookup = lookup;
+    }
+
+    public void start() {
+        nextDeadline = System.currentTimeMillis() + slotMillis();
+        scheduleNext();
+    }
+
+    public void add(String sessionId) {
+        bucketOf(sessionId).add(sessionId);
+    }
+
+    public void remove(String sessionId) {
+        bucketOf(sessionId).remove(sessionId);
+    }
+
+    private Set<String> bucketOf(String sessionId) {
+        return buckets.get(Math.floorMod(sessionId.hashCode(), buckets.size()));
+    }
+
+    // Re-read each tick so a reload of the interval applies from the next slot
+    private long slotMillis() {
+        long interval = ServerConfig.getInstance().get(ServerConfig.NOTIFIER_HEARTBEAT_INTERVAL_SECONDS) * 1000L;
+        return Math.max(1, interval / buckets.size());
+    }
+
+    private void scheduleNext() {
+        long slot = slotMillis();
+        long jitter = (long) (ThreadLocalRandom.current().nextDouble() * slot * JITTER_FRACTION);
+        long target = nextDeadline + jitter;
+        long delay = Math.max(0, target - System.currentTimeMillis());
+        scheduler.schedule(() -> {
+            try {
+                sweep(target);
+            } catch (Exception e) {
+                System.err.println("Heartbeat sweep failed: " + e.getMessage());
+            } finally {
+                if (!scheduler.isShutdown()) {
+                    advance();
+                    scheduleNext();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void advance() {
+        nextBucket = (nextBucket + 1) % buckets.size();
+        long slot = slotMillis();
+        nextDeadline += slot;
+        long now = System.currentTimeMillis();
+        if (nextDeadline < now - slot) {
+            // Fell more than a slot behind (GC pause, suspended host); don't try to catch up
+            nextDeadline = now;
+        }
+    }
+
+    private void sweep(long target) {
+        long start = System.nanoTime();
+        long lag = Math.max(0, System.currentTimeMillis() - target);
+        Set<String> bucket = buckets.get(nextBucket);
+        LivenessTracker liveness = LivenessTracker.getInstance();
+
+        List<String> swept = new ArrayList<>(bucket.size());
+        for (String sessionId : bucket) {
+            WebSocket connection = lookup.apply(sessionId);
+            if (connection == null) {
+                // Session went away without remove(); drop it here
+                bucket.remove(sessionId);
+                continue;
+            }
+            swept.add(sessionId);
+            if (!connection.isOpen()) {
+                continue;
+            }
+            try {
+                // Background lane: pings never get ahead of gameplay frames
+                OutboundBackpressure.sendBackground(connection, connection::sendPing);
+                pingsSent.incrementAndGet();
+            } catch (Exception e) {
+                System.err.println("Failed to send ping to " + sessionId + ": " + e.getMessage());
+                pingFailures.incrementAndGet();
+                liveness.recordMissed(sessionId);
+            }
+        }
+        liveness.writeSnapshot(swept);
+
+        long micros = (System.nanoTime() - start) / 1000;
+        sweeps.incrementAndGet();
+        totalSweepMicros.addAndGet(micros);
+        totalLagMs.addAndGet(lag);
+        lastSweepMicros = micros;
+        lastLagMs = lag;
+        if (micros > maxSweepMicros) {
+            maxSweepMicros = micros;
+        }
+        if (lag > maxLagMs) {
+            maxLagMs = lag;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        int total = 0;
+        for (Set<String> bucket : buckets) {
+            int size = bucket.size();
+            min = Math.min(min, size);
+            max = Math.max(max, size);
+            total += size;
+        }
+        long count = sweeps.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buckets", buckets.size());
+        stats.put("slotMillis", slotMillis());
+        stats.put("sessions", total);
+        stats.put("minBucketSize", buckets.isEmpty() ? 0 : min);
+        stats.put("maxBucketSize", max);
+        stats.put("sweeps", count);
+        stats.put("pingsSent", pingsSent.get());
+        stats.put("pingFailures", pingFailures.get());
+        stats.put("lastSweepMicros", lastSweepMicros);
+        stats.put("avgSweepMicros", count > 0 ? totalSweepMicros.get() / count : 0);
+        stats.put("maxSweepMicros", maxSweepMicros);
+        stats.put("lastLagMs", lastLagMs);
+        stats.put("avgLagMs", count > 0 ? (double) totalLagMs.get() / count : 0.0);
+        stats.put("maxLagMs", maxLagMs);
+        return stats;
+    }
+}
@@ -0,0 +1,427 @@
+package com.stanstate.ttt;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory connection health: liveness from native WebSocket ping/pong
+ * frames plus client-reported quality and socket errors.
+ *
+ * Each ping carries its send time (System.nanoTime) as payload; clients echo
+ * it in the pong, which gives the round-trip time without any per-socket
+ * bookkeeping. RTT, missed pings, errors, last-seen time and a quality EWMA
+ * live in a lock-free table keyed by session, readable via {@link #get} and
+ * {@link #getQuality}. The database only sees a periodic snapshot of the
+ * sessions that changed, written as one JDBC batch, so WebSocket threads
+ * never touch JDBC.
+ */
+public class LivenessTracker {
+    private static LivenessTracker instance;
+
+    private static final double CLIENT_QUALITY_ALPHA = 0.3;
+    private static final double ERROR_QUALITY = 0.1;
+    private static final double ERROR_ALPHA = 0.5;
+
+    private final ConcurrentHashMap<String, Liveness> table = new ConcurrentHashMap<>();
+    private final DatabaseManager dbManager;
+    private final ScheduledExecutorService snapshotScheduler;
+    private volatile boolean stopped;
+
+    private final AtomicLong snapshotsWritten = new AtomicLong();
+    private volatile int lastSnapshotRows;
+    private volatile long lastSnapshotMillis;
+
+    /**
+     * Per-session liveness state. Fields are written by the ping thread and the
+     * socket's selector thread without locking.
+     */
+    public static class Liveness {
+        final AtomicLong pingsSent = new AtomicLong();
+        final AtomicLong pongsReceived = new AtomicLong();
+        final AtomicLong missedPings = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        // Pings sent since the last pong; more than one means one went unanswered
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicLong qualityBits = new AtomicLong(Double.doubleToLongBits(1.0));
+        volatile long lastRttMicros = -1;
+        volatile long smoothedRttMicros = -1;
+        volatile long lastPingAt;
+        volatile long lastPongAt;
+        // Last time anything arrived from the client (pong, frame, report)
+        volatile long lastSeenAt = System.currentTimeMillis();
+        volatile boolean dirty;
+        volatile boolean closed;
+
+        public double getQuality() {
+            return Double.longBitsToDouble(qualityBits.get());
+        }
+
+        void adjustQuality(double factor, double delta) {
+            long prev;
+            long next;
+            do {
+                prev = qualityBits.get();
+                double q = Double.longBitsToDouble(prev) * factor + delta;
+                next = Double.doubleToLongBits(Math.max(0.0, Math.min(1.0, q)));
+            } while (!qualityBits.compareAndSet(prev, next));
+        }
+
+        // EWMA step toward a sample: q = (1 - alpha) * q + alpha * sample
+        void blendQuality(double sample, double alpha) {
+            adjustQuality(1.0 - alpha, alpha * sample);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("quality", getQuality());
+            m.put("rttMicros", lastRttMicros);
+            m.put("smoothedRttMicros", smoothedRttMicros);
+            m.put("pingsSent", pingsSent.get());
+            m.put("pongsReceived", pongsReceived.get());
+            m.put("missedPings", missedPings.get());
+            m.put("errors", errors.get());
+            m.put("lastSeenAt", lastSeenAt);
+            m.put("closed", closed);
+            return m;
+        }
+    }
+
+    private LivenessTracker() {
+        this.dbManager = DatabaseManager.getInstance();
+        this.snapshotScheduler = ExecutorRegistry.getInstance().maintenance();
+        ExecutorRegistry.getInstance().onShutdown(ExecutorRegistry.Phase.PERSISTENCE, "LivenessTracker", this::shutdown);
+        scheduleSnapshot();
+    }
+
+    public static synchronized LivenessTracker getInstance() {
+        if (instance == null) {
+            instance = new LivenessTracker();
+        }
+        return instance;
+    }
+
+    public void track(String sessionId) {
+        Liveness entry = table.computeIfAbsent(sessionId, k -> new Liveness());
+        entry.closed = false;
+        entry.dirty = true;
+    }
+
+    /**
+     * Stop tracking a session. The entry stays until the next snapshot so its
+     * final numbers still reach the database.
+     */
+    public void untrack(String sessionId) {
+        Liveness entry = table.get(sessionId);
+        if (entry != null) {
+            entry.closed = true;
+            entry.dirty = true;
+        }
+    }
+
+    public Liveness get(String sessionId) {
+        return table.get(sessionId);
+    }
+
+    /**
+     * Current quality in [0, 1]; sessions we know nothing about count as 1.0.
+     */
+    public double getQuality(String sessionId) {
+        Liveness entry = table.get(sessionId);
+        return entry != null ? entry.getQuality() : 1.0;
+    }
+
+    /**
+     * Any inbound frame proves the client is there.
+     */
+    public void touch(WebSocket conn) {
+        Liveness entry = entryFor(conn);
+        if (entry != null) {
+            entry.lastSeenAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Quality reported by the client in a connection_quality frame.
+     */
+    public void recordClientQuality(String sessionId, double quality) {
+        Liveness entry = table.get(sessionId);
+        if (entry != null) {
+            entry.blendQuality(Math.max(0.0, Math.min(1.0, quality)), CLIENT_QUALITY_ALPHA);
+            entry.lastSeenAt = System.currentTimeMillis();
+            entry.dirty = true;
+        }
+    }
+
+    /**
+     * Socket error on a session; pulls quality sharply toward ERROR_QUALITY.
+     */
+    public void recordError(String sessionId) {
+        Liveness entry = table.get(sessionId);
+        if (entry != null) {
+            entry.errors.incrementAndGet();
+            entry.blendQuality(ERROR_QUALITY, ERROR_ALPHA);
+            entry.dirty = true;
+        }
+    }
+
+    /**
+     * Build the ping frame for a socket, stamped with the send time.
+     */
+    public PingFrame preparePing(WebSocket conn) {
+        PingFrame ping = new PingFrame();
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putLong(System.nanoTime());
+        payload.flip();
+        ping.setPayload(payload);
+
+        Liveness entry = entryFor(conn);
+        if (entry != null) {
+            entry.pingsSent.incrementAndGet();
+            entry.lastPingAt = System.currentTimeMillis();
+            if (entry.outstanding.getAndIncrement() > 0) {
+                recordMissed(entry);
+            }
+            entry.dirty = true;
+        }
+        return ping;
+    }
+
+    public void onPong(WebSocket conn, Framedata pong) {
+        Liveness entry = entryFor(conn);
+        if (entry == null) {
+            return;
+        }
+        long rttMicros = -1;
+        ByteBuffer payload = pong.getPayloadData();
+        if (payload != null && payload.remaining() == 8) {
+            rttMicros = (System.nanoTime() - payload.getLong(payload.position())) / 1000;
+        }
+        recordPong(entry, rttMicros);
+    }
+
+    /**
+     * Application-level heartbeat reply from older clients (no RTT).
+     */
+    public void recordPong(String sessionId) {
+        Liveness entry = table.get(sessionId);
+        if (entry != null) {
+            recordPong(entry, -1);
+        }
+    }
+
+    /**
+     * A ping could not even be written to the socket.
+     */
+    public void recordMissed(String sessionId) {
+        Liveness entry = table.get(sessionId);
+        if (entry != null) {
+            recordMissed(entry);
+        }
+    }
+
+    private void recordPong(Liveness entry, long rttMicros) {
+        entry.pongsReceived.incrementAndGet();
+        entry.outstanding.set(0);
+        entry.lastPongAt = System.currentTimeMillis();
+        entry.lastSeenAt = entry.lastPongAt;
+        if (rttMicros >= 0) {
+            entry.lastRttMicros = rttMicros;
+            long srtt = entry.smoothedRttMicros;
+            // Same smoothing as TCP's SRTT (1/8 gain); races only lose a sample
+            entry.smoothedRttMicros = srtt < 0 ? rttMicros : srtt + (rttMicros - srtt) / 8;
+        }
+        entry.adjustQuality(1.0, 0.1);
+        entry.dirty = true;
+    }
+
+    private void recordMissed(Liveness entry) {
+        entry.missedPings.incrementAndGet();
+        entry.adjustQuality(0.9, 0.0);
+        entry.dirty = true;
+    }
+
+    private Liveness entryFor(WebSocket conn) {
+        String sessionId = ConnectionContext.sessionOf(conn);
+        return sessionId != null ? table.get(sessionId) : null;
+    }
+
+    private void scheduleSnapshot() {
+        int period = ServerConfig.getInstance().get(ServerConfig.LIVENESS_SNAPSHOT_INTERVAL_SECONDS);
+        snapshotScheduler.schedule(() -> {
+            try {
+                writeSnapshot();
+            } catch (Exception e) {
+                System.err.println("Liveness snapshot failed: " + e.getMessage());
+            } finally {
+                if (!stopped && !snapshotScheduler.isShutdown()) {
+                    scheduleSnapshot();
+                }
+            }
+        }, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Write every session that changed since the last snapshot in one batch,
+     * then drop entries for sessions that have gone away.
+     */
+    public void writeSnapshot() {
+        List<Map.Entry<String, Liveness>> changed = new ArrayList<>();
+        for (Map.Entry<String, Liveness> e : table.entrySet()) {
+            if (e.getValue().dirty) {
+                e.getValue().dirty = false;
+                changed.add(e);
+            }
+        }
+        write(changed);
+    }
+
+    /**
+     * Same as {@link #writeSnapshot()} for just these sessions; the
+     * heartbeat sweep calls it once per bucket. Only the dirty check runs on
+     * the caller's thread, the batch is written on the maintenance pool so
+     * the sweep thread never waits on JDBC.
+     */
+    public void writeSnapshot(Collection<String> sessionIds) {
+        List<Map.Entry<String, Liveness>> changed = new ArrayList<>();
+        for (String sessionId : sessionIds) {
+            Liveness l = table.get(sessionId);
+            if (l != null && l.dirty) {
+                l.dirty = false;
+                changed.add(Map.entry(sessionId, l));
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        if (snapshotScheduler.isShutdown()) {
+            write(changed);
+            return;
+        }
+        snapshotScheduler.execute(() -> {
+            try {
+                write(changed);
+            } catch (Exception e) {
+                System.err.println("Liveness snapshot failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private void write(List<Map.Entry<String, Liveness>> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement health = conn.prepareStatement(
+                     "MERGE INTO connection_health " +
+                     "(session_id, last_ping, last_pong, ping_count, missed_pings, connection_quality) KEY(session_id) " +
+                     "SELECT session_id, ?, ?, ?, ?, ? FROM player_sessions WHERE session_id = ?");
+                 PreparedStatement heartbeat = conn.prepareStatement(
+                     "UPDATE player_sessions SET last_heartbeat = ?, connection_status = 'connected' " +
+                     "WHERE session_id = ? AND last_heartbeat < ?")) {
+                for (Map.Entry<String, Liveness> e : changed) {
+                    Liveness l = e.getValue();
+                    health.setTimestamp(1, l.lastPingAt > 0 ? new Timestamp(l.lastPingAt) : null);
+                    health.setTimestamp(2, l.lastPongAt > 0 ? new Timestamp(l.lastPongAt) : null);
+                    health.setLong(3, l.pingsSent.get());
+                    health.setLong(4, l.missedPings.get());
+                    health.setDouble(5, l.getQuality());
+                    health.setString(6, e.getKey());
+                    health.addBatch();
+
+                    // A recent pong proves the session is alive, so refresh its heartbeat
+                    if (!l.closed && l.lastPongAt > 0) {
+                        Timestamp pongAt = new Timestamp(l.lastPongAt);
+                        heartbeat.setTimestamp(1, pongAt);
+                        heartbeat.setString(2, e.getKey());
+                        heartbeat.setTimestamp(3, pongAt);
+                        heartbeat.addBatch();
+                    }
+                }
+                health.executeBatch();
+                heartbeat.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to write liveness snapshot: " + e.getMessage());
+            // Try again on the next tick
+            changed.forEach(entry -> entry.getValue().dirty = true);
+            return;
+        }
+
+        for (Map.Entry<String, Liveness> e : changed) {
+            if (e.getValue().closed) {
+                table.remove(e.getKey(), e.getValue());
+            }
+        }
+        snapshotsWritten.incrementAndGet();
+        lastSnapshotRows = changed.size();
+        lastSnapshotMillis = System.currentTimeMillis() - start;
+    }
+
+    public Map<String, Object> getStats() {
+        long missed = 0;
+        long errors = 0;
+        long rttSum = 0;
+        long rttMax = 0;
+        int rttCount = 0;
+        double qualitySum = 0;
+        int open = 0;
+        for (Liveness l : table.values()) {
+            if (l.closed) {
+                continue;
+            }
+            open++;
+            missed += l.missedPings.get();
+            errors += l.errors.get();
+            qualitySum += l.getQuality();
+            long srtt = l.smoothedRttMicros;
+            if (srtt >= 0) {
+                rttSum += srtt;
+                rttMax = Math.max(rttMax, srtt);
+                rttCount++;
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedSessions", open);
+        stats.put("avgRttMicros", rttCount > 0 ? rttSum / rttCount : -1);
+        stats.put("maxRttMicros", rttCount > 0 ? rttMax : -1);
+        stats.put("avgQuality", open > 0 ? qualitySum / open : 1.0);
+        stats.put("missedPings", missed);
+        stats.put("errors", errors);
+        stats.put("snapshotsWritten", snapshotsWritten.get());
+        stats.put("lastSnapshotRows", lastSnapshotRows);
+        stats.put("lastSnapshotMillis", lastSnapshotMillis);
+        return stats;
+    }
+
+    public void shutdown() {
+        stopped = true;
+        // Final numbers for sessions that changed since the last tick
+        writeSnapshot();
+    }
+}
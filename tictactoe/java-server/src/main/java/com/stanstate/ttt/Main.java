@@ -2,9 +2,20 @@ package com.stanstate.ttt;
 
 public class Main {
     public static void main(String[] args) throws Exception {
-        int wsPort = 8080;
-        int httpPort = 8081;
+        // Load and validate configuration before anything reads it
+        ServerConfig config;
+        try {
+            config = ServerConfig.load(ServerConfig.defaultPath());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        
+        int wsPort = config.get(ServerConfig.WS_PORT);
+        int httpPort = config.get(ServerConfig.HTTP_PORT);
         
+        // Positional ports still win over the config file
         if (args.length > 0) {
             wsPort = Integer.parseInt(args[0]);
         }
@@ -53,19 +64,9 @@ public class Main {
                     wsServer.stop();
                 }
                 
-                // Shutdown WebSocket notifier
-                if (Server.getNotifier() != null) {
-                    System.out.println("Shutting down notification system...");
-                    Server.getNotifier().shutdown();
-                }
-                
-                // Shutdown database manager
-                System.out.println("Shutting down database manager...");
-                dbManager.shutdown();
-                
-                // Shutdown game state cache
-                System.out.println("Shutting down game state cache...");
-                GameStateCache.getInstance().shutdown();
+                // Notifier, game pool, flushers, then database tasks; each
+                // phase's pools stop only after its subsystems have flushed
+                ExecutorRegistry.getInstance().shutdown();
                 
                 System.out.println("Server shutdown complete.");
             } catch (Exception e) {
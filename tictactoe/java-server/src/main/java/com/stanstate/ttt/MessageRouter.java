@@ -0,0 +1,137 @@
+package com.stanstate.ttt;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.java_websocket.WebSocket;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes inbound WebSocket frames to per-type handlers.
+ *
+ * Only the "t" field is read with a streaming reader to pick the route; the
+ * frame is then bound straight into the handler's payload class with a
+ * TypeAdapter resolved once at registration. No JsonObject tree is built and
+ * no Gson instance is created per frame.
+ */
+public class MessageRouter {
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Handler for one message type, receiving the already-bound payload.
+     */
+    public interface Handler<T> {
+        void handle(WebSocket conn, T payload);
+    }
+
+    /**
+     * Thrown when a frame is not valid JSON or does not fit its payload type.
+     */
+    public static class MalformedMessageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedMessageException(String message) {
+            super(message);
+        }
+
+        public MalformedMessageException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class Route<T> {
+        private final TypeAdapter<T> adapter;
+        private final Handler<T> handler;
+
+        Route(Class<T> payloadType, Handler<T> handler) {
+            this.adapter = GSON.getAdapter(payloadType);
+            this.handler = handler;
+        }
+
+        void invoke(WebSocket conn, String message) throws MalformedMessageException {
+            T payload;
+            try {
+                payload = adapter.fromJson(message);
+            } catch (IOException | JsonParseException | IllegalStateException | NumberFormatException e) {
+                throw new MalformedMessageException("Payload does not match message type", e);
+            }
+            if (payload == null) {
+                throw new MalformedMessageException("Empty payload");
+            }
+            handler.handle(conn, payload);
+        }
+    }
+
+    private final Map<String, Route<?>> routes = new ConcurrentHashMap<>();
+    private volatile Route<?> defaultRoute;
+
+    public <T> void register(String type, Class<T> payloadType, Handler<T> handler) {
+        routes.put(type, new Route<>(payloadType, handler));
+    }
+
+    /**
+     * Route used for JSON objects without a "t" field or with an unknown type.
+     */
+    public <T> void registerDefault(Class<T> payloadType, Handler<T> handler) {
+        defaultRoute = new Route<>(payloadType, handler);
+    }
+
+    /**
+     * Dispatch one text frame.
+     *
+     * @return false if the frame is not a JSON object (legacy plain-text
+     *         message) or no route accepts it, true once a handler ran
+     */
+    public boolean dispatch(WebSocket conn, String message) throws MalformedMessageException {
+        if (!isJsonObject(message)) {
+            return false;
+        }
+        String type = readType(message);
+        Route<?> route = type != null ? routes.get(type) : null;
+        if (route == null) {
+            route = defaultRoute;
+        }
+        if (route == null) {
+            return false;
+        }
+        route.invoke(conn, message);
+        return true;
+    }
+
+    /**
+     * Read only the top-level "t" field, skipping every other value.
+     */
+    static String readType(String message) throws MalformedMessageException {
+        try (JsonReader reader = new JsonReader(new StringReader(message))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("t".equals(reader.nextName())) {
+                    if (reader.peek() != JsonToken.STRING) {
+                        throw new MalformedMessageException("\"t\" must be a string");
+                    }
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+            reader.endObject();
+            return null;
+        } catch (IOException | IllegalStateException e) {
+            throw new MalformedMessageException("Invalid JSON format", e);
+        }
+    }
+
+    private static boolean isJsonObject(String message) {
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+}
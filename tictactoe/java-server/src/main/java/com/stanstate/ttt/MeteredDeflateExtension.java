@@ -0,0 +1,72 @@
+package com.stanstate.ttt;
+
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * permessage-deflate with a minimum payload size and per-connection byte
+ * counters, so the bandwidth saved can be weighed against the CPU spent.
+ *
+ * The library hands every connection its own copy of the negotiated
+ * extension (copyInstance), so the counters here are per socket.
+ */
+public class MeteredDeflateExtension extends PerMessageDeflateExtension {
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong framesCompressed = new AtomicLong();
+    private final AtomicLong framesSkipped = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    public MeteredDeflateExtension(int threshold) {
+        setThreshold(threshold);
+    }
+
+    @Override
+    public void encodeFrame(Framedata inputFrame) {
+        if (!(inputFrame instanceof DataFrame)) {
+            super.encodeFrame(inputFrame);
+            return;
+        }
+        int before = inputFrame.getPayloadData().remaining();
+        long start = System.nanoTime();
+        super.encodeFrame(inputFrame);
+        if (inputFrame.isRSV1()) {
+            compressNanos.addAndGet(System.nanoTime() - start);
+            uncompressedBytes.addAndGet(before);
+            compressedBytes.addAndGet(inputFrame.getPayloadData().remaining());
+            framesCompressed.incrementAndGet();
+        } else {
+            // Below threshold: sent as-is
+            uncompressedBytes.addAndGet(before);
+            compressedBytes.addAndGet(before);
+            framesSkipped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        // The base class copy would drop the threshold
+        MeteredDeflateExtension copy = new MeteredDeflateExtension(getThreshold());
+        copy.setServerNoContextTakeover(isServerNoContextTakeover());
+        copy.setClientNoContextTakeover(isClientNoContextTakeover());
+        return copy;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long raw = uncompressedBytes.get();
+        long wire = compressedBytes.get();
+        stats.put("uncompressedBytes", raw);
+        stats.put("compressedBytes", wire);
+        stats.put("savedBytes", raw - wire);
+        stats.put("framesCompressed", framesCompressed.get());
+        stats.put("framesBelowThreshold", framesSkipped.get());
+        stats.put("compressMicros", compressNanos.get() / 1000);
+        return stats;
+    }
+}
@@ -0,0 +1,429 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-connection outbound accounting for slow clients.
+ *
+ * Every push goes through {@link #send}. While a socket's outbound queue in
+ * the WebSocket library is under ws.outboundHighWaterBytes the write happens
+ * immediately. Past that, messages with a coalescing key (the match id for
+ * "state"/"over") are parked on the ConnectionContext instead, and a newer
+ * message for the same match replaces the parked one. Once anything is
+ * parked, every later gameplay frame is parked behind it, so frames always
+ * reach the socket in the order (and seq order) they were sent; a replacing
+ * message takes the place of the newest. {@link #sweep} sends the
+ * parked messages once the queue drains, and closes sockets that have stayed
+ * over the limit for longer than ws.outboundCloseAfterMs.
+ *
+ * Messages are in one of two lanes. Gameplay frames (board state, match
+ * start/end, move rejections) are written as described above and are never
+ * rate-limited. Everything else (hello/confirmations, pings, lobby notices,
+ * replayed chatter) goes through {@link #sendBackground}: a per-connection
+ * token bucket (ws.backgroundRatePerSecond, ws.backgroundBurst) lets it
+ * straight through while there are tokens and queues it otherwise. The queue
+ * lives here rather than in the socket, so a gameplay frame sent later still
+ * reaches the socket first. {@link #sweep} releases queued background
+ * frames as tokens refill. A queued frame may carry a fallback; if the socket
+ * closes before the frame is released, the fallback runs instead (the
+ * notifier uses it to hold the frame for the session's next connection).
+ */
+public final class OutboundBackpressure {
+    public enum Priority { GAMEPLAY, BACKGROUND }
+
+    private static final Set<String> GAMEPLAY_TYPES = Set.of(
+        "state", "over", "match", "snapshot", "match_start",
+        "game_state", "game_update", "game_over", "move_rejected");
+
+    private static final AtomicLong deferred = new AtomicLong();
+    private static final AtomicLong superseded = new AtomicLong();
+    private static final AtomicLong flushed = new AtomicLong();
+    private static final AtomicLong closedSlow = new AtomicLong();
+    private static final AtomicLong gameplaySent = new AtomicLong();
+    private static final AtomicLong backgroundImmediate = new AtomicLong();
+    private static final AtomicLong backgroundQueued = new AtomicLong();
+    private static final AtomicLong backgroundReleased = new AtomicLong();
+    private static final AtomicLong backgroundOverflow = new AtomicLong();
+    private static final AtomicLong backgroundAbandoned = new AtomicLong();
+
+    // A background write waiting for a token
+    static final class Queued {
+        final Runnable write;
+        final Runnable dropped; // null: nothing to do if it never goes out
+
+        Queued(Runnable write, Runnable dropped) {
+            this.write = write;
+            this.dropped = dropped;
+        }
+    }
+
+    private OutboundBackpressure() {}
+
+    /**
+     * Coalescing key for a pushed message: only the latest state/over of a
+     * match matters, so both share the match id. Null means never coalesce.
+     */
+    public static String coalesceKey(JsonObject message) {
+        JsonElement type = message.get("t");
+        JsonElement match = message.get("match");
+        if (type == null || match == null || match.isJsonNull()) {
+            return null;
+        }
+        String t = type.getAsString();
+        return "state".equals(t) || "over".equals(t) ? match.getAsString() : null;
+    }
+
+    /**
+     * Lane for a message type ("t"). Unknown types are background.
+     */
+    public static Priority priorityOf(String type) {
+        return type != null && GAMEPLAY_TYPES.contains(type) ? Priority.GAMEPLAY : Priority.BACKGROUND;
+    }
+
+    /**
+     * Message types that go in the gameplay lane.
+     */
+    public static Set<String> gameplayTypes() {
+        return GAMEPLAY_TYPES;
+    }
+
+    /**
+     * Send in the lane for {@code type}; see {@link #send(WebSocket, String, Runnable)}
+     * and {@link #sendBackground(WebSocket, Runnable)}.
+     */
+    public static boolean send(WebSocket conn, String type, String coalesceKey, Runnable write) {
+        return priorityOf(type) == Priority.GAMEPLAY ? send(conn, coalesceKey, write) : sendBackground(conn, write);
+    }
+
+    /**
+     * {@link #coalesceKey(JsonObject)} for an already serialized message;
+     * only parses types that can have a key.
+     */
+    public static String coalesceKey(String type, String json) {
+        if (!"state".equals(type) && !"over".equals(type)) {
+            return null;
+        }
+        try {
+            return coalesceKey(JsonParser.parseString(json).getAsJsonObject());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Bytes queued in the library for this socket but not yet written.
+     */
+    public static long bufferedBytes(WebSocket conn) {
+        if (!(conn instanceof WebSocketImpl impl)) {
+            return 0;
+        }
+        long total = 0;
+        for (ByteBuffer buffer : impl.outQueue) {
+            total += buffer.remaining();
+        }
+        return total;
+    }
+
+    /**
+     * Gameplay lane: write now, or park the write if the socket is backed up.
+     *
+     * @return true if the write was handed to the socket, false if it was
+     *         parked (it will go out from {@link #sweep} or be superseded)
+     */
+    public static boolean send(WebSocket conn, String coalesceKey, Runnable write) {
+        ConnectionContext ctx = ConnectionContext.of(conn);
+        long highWater = ServerConfig.getInstance().get(ServerConfig.WS_OUTBOUND_HIGH_WATER_BYTES);
+        long buffered = bufferedBytes(conn);
+        synchronized (ctx) {
+            if (buffered < highWater) {
+                // Anything parked for this key is older than what we are sending
+                if (coalesceKey != null && ctx.parked.remove(coalesceKey) != null) {
+                    superseded.incrementAndGet();
+                }
+                flushParked(ctx);
+                ctx.overLimitSince = 0;
+                write.run();
+                gameplaySent.incrementAndGet();
+                return true;
+            }
+            if (ctx.overLimitSince == 0) {
+                ctx.overLimitSince = System.currentTimeMillis();
+            }
+            if (coalesceKey == null) {
+                if (ctx.parked.isEmpty()) {
+                    // Not replaceable by a later message; queue it behind the rest
+                    write.run();
+                    gameplaySent.incrementAndGet();
+                    return true;
+                }
+                // Must not overtake what is parked
+                ctx.parked.put(new Object(), write);
+                deferred.incrementAndGet();
+                return false;
+            }
+            // Re-inserted at the end: it is newer than anything parked after the old one
+            if (ctx.parked.remove(coalesceKey) != null) {
+                superseded.incrementAndGet();
+            }
+            ctx.parked.put(coalesceKey, write);
+            deferred.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Background lane for live-only frames; see
+     * {@link #sendBackground(WebSocket, Runnable, Runnable)}.
+     */
+    public static boolean sendBackground(WebSocket conn, Runnable write) {
+        return sendBackground(conn, write, null);
+    }
+
+    /**
+     * Background lane: write now if the connection has a token, nothing is
+     * queued ahead and the socket is under the high-water mark; otherwise
+     * queue the write for {@link #sweep}.
+     *
+     * @param dropped run instead of {@code write} if the socket closes while
+     *        the write is still queued; null if the frame may just be lost
+     * @return true if the write was handed to the socket, false if queued
+     */
+    public static boolean sendBackground(WebSocket conn, Runnable write, Runnable dropped) {
+        ConnectionContext ctx = ConnectionContext.of(conn);
+        ServerConfig config = ServerConfig.getInstance();
+        long highWater = config.get(ServerConfig.WS_OUTBOUND_HIGH_WATER_BYTES);
+        long buffered = bufferedBytes(conn);
+        List<Queued> lost = null;
+        synchronized (ctx) {
+            refill(ctx, config);
+            if (ctx.background.isEmpty() && ctx.backgroundTokens >= 1 && buffered < highWater) {
+                ctx.backgroundTokens -= 1;
+                write.run();
+                backgroundImmediate.incrementAndGet();
+                return true;
+            }
+            if (ctx.background.size() >= config.get(ServerConfig.WS_BACKGROUND_QUEUE_SIZE)) {
+                // Full: release the oldest early rather than drop or reorder
+                backgroundOverflow.incrementAndGet();
+                Queued oldest = ctx.background.pollFirst();
+                if (!runBackground(oldest)) {
+                    lost = takeBackground(ctx);
+                    lost.add(0, oldest);
+                }
+            }
+            if (lost == null) {
+                ctx.background.addLast(new Queued(write, dropped));
+                backgroundQueued.incrementAndGet();
+            }
+        }
+        if (lost != null) {
+            // The socket is gone; this frame shares the fate of the queued ones
+            lost.add(new Queued(write, dropped));
+            runDropped(lost);
+        }
+        return false;
+    }
+
+    /**
+     * The socket has closed: run the fallbacks of every background frame
+     * still queued for it, oldest first. Safe to call more than once.
+     *
+     * @return number of queued frames that were abandoned
+     */
+    public static int abandon(WebSocket conn) {
+        ConnectionContext ctx = conn.getAttachment();
+        if (ctx == null) {
+            return 0;
+        }
+        List<Queued> lost;
+        synchronized (ctx) {
+            lost = takeBackground(ctx);
+        }
+        runDropped(lost);
+        return lost.size();
+    }
+
+    // Caller holds the ctx lock
+    private static List<Queued> takeBackground(ConnectionContext ctx) {
+        List<Queued> taken = new ArrayList<>(ctx.background);
+        ctx.background.clear();
+        return taken;
+    }
+
+    // Outside any ctx lock: the fallbacks may send on another socket
+    private static void runDropped(List<Queued> lost) {
+        for (Queued queued : lost) {
+            backgroundAbandoned.incrementAndGet();
+            if (queued.dropped == null) {
+                continue;
+            }
+            try {
+                queued.dropped.run();
+            } catch (Exception e) {
+                System.err.println("Fallback for an abandoned background frame failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Caller holds the ctx lock
+    private static void refill(ConnectionContext ctx, ServerConfig config) {
+        int burst = config.get(ServerConfig.WS_BACKGROUND_BURST);
+        long now = System.nanoTime();
+        if (ctx.backgroundTokens < 0) {
+            ctx.backgroundTokens = burst;
+        } else {
+            double rate = config.get(ServerConfig.WS_BACKGROUND_RATE_PER_SECOND);
+            ctx.backgroundTokens = Math.min(burst, ctx.backgroundTokens + (now - ctx.backgroundRefilledAt) * rate / 1e9);
+        }
+        ctx.backgroundRefilledAt = now;
+    }
+
+    // Caller holds the ctx lock. Returns the frames that could not be written
+    // because the socket closed, for the caller to pass to runDropped.
+    private static List<Queued> releaseBackground(ConnectionContext ctx, ServerConfig config) {
+        if (ctx.background.isEmpty()) {
+            return List.of();
+        }
+        refill(ctx, config);
+        while (ctx.backgroundTokens >= 1 && !ctx.background.isEmpty()) {
+            ctx.backgroundTokens -= 1;
+            Queued next = ctx.background.pollFirst();
+            if (!runBackground(next)) {
+                List<Queued> lost = takeBackground(ctx);
+                lost.add(0, next);
+                return lost;
+            }
+        }
+        return List.of();
+    }
+
+    private static boolean runBackground(Queued queued) {
+        try {
+            queued.write.run();
+            backgroundReleased.incrementAndGet();
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Flush parked messages on sockets that have drained, and close sockets
+     * that have been over the limit for too long. Run periodically.
+     */
+    public static void sweep(Collection<WebSocket> connections) {
+        ServerConfig config = ServerConfig.getInstance();
+        long highWater = config.get(ServerConfig.WS_OUTBOUND_HIGH_WATER_BYTES);
+        long closeAfter = config.get(ServerConfig.WS_OUTBOUND_CLOSE_AFTER_MS);
+        long now = System.currentTimeMillis();
+
+        for (WebSocket conn : connections) {
+            ConnectionContext ctx = conn.getAttachment();
+            if (ctx == null || !conn.isOpen()) {
+                continue;
+            }
+            long buffered = bufferedBytes(conn);
+            boolean close = false;
+            List<Queued> lost = List.of();
+            synchronized (ctx) {
+                if (buffered < highWater / 2) {
+                    // Drained below the low-water mark; gameplay first
+                    flushParked(ctx);
+                    ctx.overLimitSince = 0;
+                    lost = releaseBackground(ctx, config);
+                } else if (buffered >= highWater) {
+                    if (ctx.overLimitSince == 0) {
+                        ctx.overLimitSince = now;
+                    } else if (now - ctx.overLimitSince > closeAfter) {
+                        ctx.parked.clear();
+                        lost = takeBackground(ctx);
+                        close = true;
+                    }
+                }
+            }
+            if (close) {
+                closedSlow.incrementAndGet();
+                System.err.println("Closing slow WebSocket " + conn.getRemoteSocketAddress() +
+                                   " (session " + ctx.getSessionId() + ", " + buffered + " bytes buffered)");
+                // Drop the socket without flushing the backlog we are trying to free
+                conn.closeConnection(CloseFrame.TRY_AGAIN_LATER, "Outbound buffer over limit");
+            }
+            // After the close, so a fallback never hands a frame back to this socket
+            runDropped(lost);
+        }
+    }
+
+    // Caller holds the ctx lock
+    private static void flushParked(ConnectionContext ctx) {
+        if (ctx.parked.isEmpty()) {
+            return;
+        }
+        List<Runnable> writes = new ArrayList<>(ctx.parked.values());
+        ctx.parked.clear();
+        for (Runnable write : writes) {
+            try {
+                write.run();
+                flushed.incrementAndGet();
+            } catch (WebsocketNotConnectedException e) {
+                return;
+            }
+        }
+    }
+
+    public static Map<String, Object> getStats(Collection<WebSocket> connections) {
+        long highWater = ServerConfig.getInstance().get(ServerConfig.WS_OUTBOUND_HIGH_WATER_BYTES);
+        int overLimit = 0;
+        int parked = 0;
+        int backgroundWaiting = 0;
+        long bufferedTotal = 0;
+        long bufferedMax = 0;
+        for (WebSocket conn : connections) {
+            long buffered = bufferedBytes(conn);
+            bufferedTotal += buffered;
+            bufferedMax = Math.max(bufferedMax, buffered);
+            if (buffered >= highWater) {
+                overLimit++;
+            }
+            ConnectionContext ctx = conn.getAttachment();
+            if (ctx != null) {
+                synchronized (ctx) {
+                    parked += ctx.parked.size();
+                    backgroundWaiting += ctx.background.size();
+                }
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("highWaterBytes", highWater);
+        stats.put("connectionsOverLimit", overLimit);
+        stats.put("bufferedBytesTotal", bufferedTotal);
+        stats.put("bufferedBytesMax", bufferedMax);
+        stats.put("parkedMessages", parked);
+        stats.put("deferred", deferred.get());
+        stats.put("superseded", superseded.get());
+        stats.put("flushed", flushed.get());
+        stats.put("closedSlowConnections", closedSlow.get());
+        stats.put("gameplaySent", gameplaySent.get());
+        stats.put("backgroundWaiting", backgroundWaiting);
+        stats.put("backgroundImmediate", backgroundImmediate.get());
+        stats.put("backgroundQueued", backgroundQueued.get());
+        stats.put("backgroundReleased", backgroundReleased.get());
+        stats.put("backgroundOverflow", backgroundOverflow.get());
+        stats.put("backgroundAbandoned", backgroundAbandoned.get());
+        return stats;
+    }
+}
@@ -0,0 +1,168 @@
+package com.stanstate.ttt;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Per-session message sequence numbers and a bounded replay log.
+ *
+ * Every JSON message for a session gets the next "seq" of that session
+ * (contiguous, starting just above the wall-clock millis at which the log was
+ * created, so numbers from before a restart or expiry never look current) and
+ * is kept in a log of the last notifier.replayLogSize messages. A client
+ * that reconnects with the last seq it saw is sent only the messages after it. If some of those were already evicted, or the seq
+ * does not belong to this log (server restarted, log expired), the caller
+ * falls back to a full-state snapshot.
+ *
+ * Stamping, logging and delivery happen under the session's log lock, so a
+ * session always receives its messages in seq order.
+ */
+public class ReplayLog {
+    private final ConcurrentHashMap<String, Log> logs = new ConcurrentHashMap<>();
+
+    private final AtomicLong stamped = new AtomicLong();
+    private final AtomicLong resumedExact = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong snapshotFallbacks = new AtomicLong();
+
+    private static final class Entry {
+        final long seq;
+        final String text;
+
+        Entry(long seq, String text) {
+            this.seq = seq;
+            this.text = text;
+        }
+    }
+
+    private static final class Log {
+        final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        long lastSeq;
+        // Highest seq this log cannot replay (evicted, or issued before it existed)
+        long evictedThrough;
+        long lastAppendAt;
+        boolean removed;
+
+        Log() {
+            lastAppendAt = System.currentTimeMillis();
+            lastSeq = lastAppendAt;
+            evictedThrough = lastAppendAt;
+        }
+    }
+
+    /**
+     * Stamp the next seq of this session onto a JSON object string, log it
+     * and hand the stamped text to {@code deliver} while still holding the
+     * session's lock.
+     */
+    public String append(String sessionId, String json, Consumer<String> deliver) {
+        int capacity = ServerConfig.getInstance().get(ServerConfig.NOTIFIER_REPLAY_LOG_SIZE);
+        while (true) {
+            Log log = logs.computeIfAbsent(sessionId, k -> new Log());
+            synchronized (log) {
+                if (log.removed) {
+                    continue; // lost a race with expire(); use the fresh log
+                }
+                long seq = ++log.lastSeq;
+                String text = stamp(json, seq);
+                log.entries.addLast(new Entry(seq, text));
+                while (log.entries.size() > capacity) {
+                    log.evictedThrough = log.entries.removeFirst().seq;
+                }
+                log.lastAppendAt = System.currentTimeMillis();
+                stamped.incrementAndGet();
+                deliver.accept(text);
+                return text;
+            }
+        }
+    }
+
+    /**
+     * Resend everything after {@code lastSeq}.
+     *
+     * @return false if the log cannot prove it holds every message after
+     *         lastSeq; the caller must send a snapshot instead
+     */
+    public boolean replay(String sessionId, long lastSeq, Consumer<String> deliver) {
+        Log log = logs.get(sessionId);
+        if (log == null) {
+            snapshotFallbacks.incrementAndGet();
+            return false;
+        }
+        synchronized (log) {
+            if (log.removed || lastSeq < log.evictedThrough || lastSeq > log.lastSeq) {
+                snapshotFallbacks.incrementAndGet();
+                return false;
+            }
+            int count = 0;
+            for (Entry entry : log.entries) {
+                if (entry.seq > lastSeq) {
+                    deliver.accept(entry.text);
+                    count++;
+                }
+            }
+            resumedExact.incrementAndGet();
+            replayed.addAndGet(count);
+            return true;
+        }
+    }
+
+    /**
+     * Seq of the newest message logged for a session, or null if it has no log.
+     */
+    public Long lastSeq(String sessionId) {
+        Log log = logs.get(sessionId);
+        if (log == null) {
+            return null;
+        }
+        synchronized (log) {
+            return log.removed ? null : log.lastSeq;
+        }
+    }
+
+    /**
+     * Drop logs of sessions that are not connected and have had nothing
+     * appended for ttlMillis. Their next reconnect gets a snapshot.
+     */
+    public void expire(long ttlMillis, Predicate<String> connected) {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        for (Map.Entry<String, Log> e : logs.entrySet()) {
+            Log log = e.getValue();
+            synchronized (log) {
+                if (log.lastAppendAt < cutoff && !connected.test(e.getKey())) {
+                    log.removed = true;
+                    logs.remove(e.getKey(), log);
+                }
+            }
+        }
+    }
+
+    // {"t":"x",...} -> {"t":"x",...,"seq":N}
+    static String stamp(String json, long seq) {
+        int end = json.lastIndexOf('}');
+        String separator = json.substring(0, end).trim().endsWith("{") ? "" : ",";
+        return json.substring(0, end) + separator + "\"seq\":" + seq + json.substring(end);
+    }
+
+    public Map<String, Object> getStats() {
+        int entries = 0;
+        for (Log log : logs.values()) {
+            synchronized (log) {
+                entries += log.entries.size();
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", logs.size());
+        stats.put("entries", entries);
+        stats.put("stamped", stamped.get());
+        stats.put("resumedExact", resumedExact.get());
+        stats.put("replayedMessages", replayed.get());
+        stats.put("snapshotFallbacks", snapshotFallbacks.get());
+        return stats;
+    }
+}
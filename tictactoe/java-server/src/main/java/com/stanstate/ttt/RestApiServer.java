@@ -2,7 +2,10 @@ package com.stanstate.ttt;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import spark.Request;
 import spark.Spark;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.UUID;
 
 public class RestApiServer {
@@ -10,17 +13,15 @@ public class RestApiServer {
     private final Gson gson;
     private final int port;
     private final AsyncScoreTracker scoreTracker;
+    private final WebSocketNotifier wsNotifier;
     
     public RestApiServer(int port) {
         this.port = port;
         
-        // Get the WebSocket notifier, fallback to new instance if needed
-        WebSocketNotifier notifier = Server.getNotifier();
-        if (notifier == null) {
-            System.out.println("Warning: Server.getNotifier() returned null, creating new WebSocketNotifier");
-            notifier = new WebSocketNotifier();
-        }
+        // Same notifier as the WebSocket server, whichever of the two starts first
+        WebSocketNotifier notifier = WebSocketNotifier.getInstance();
         
+        this.wsNotifier = notifier;
         DatabaseManager dbManager = DatabaseManager.getInstance();
         this.gameService = new GameService(dbManager, notifier);
         this.scoreTracker = new AsyncScoreTracker(dbManager);
@@ -101,11 +102,22 @@ public class RestApiServer {
             try {
                 System.out.println("=== GET MATCHES REQUEST ===");
                 
+                // Optional ?cursor=&since=&limit= paging of the open-match list
+                long cursor = request.queryParams("cursor") != null ? Long.parseLong(request.queryParams("cursor")) : -1;
+                long since = request.queryParams("since") != null ? Long.parseLong(request.queryParams("since")) : -1;
+                int limit = request.queryParams("limit") != null ? Integer.parseInt(request.queryParams("limit")) : 0;
+                
                 // Get available matches from GameService
-                JsonObject matchesResponse = gameService.getAvailableMatches().get();
+                JsonObject matchesResponse = gameService.getAvailableMatches(cursor, since, limit).get();
                 System.out.println("Available matches response: " + matchesResponse);
                 
                 return gson.toJson(matchesResponse);
+            } catch (NumberFormatException e) {
+                JsonObject errorResponse = new JsonObject();
+                errorResponse.addProperty("success", false);
+                errorResponse.addProperty("error", "cursor, since and limit must be numbers");
+                response.status(400);
+                return gson.toJson(errorResponse);
             } catch (Exception e) {
                 System.out.println("GET MATCHES ERROR: " + e.getMessage());
                 e.printStackTrace();
@@ -203,14 +215,25 @@ public class RestApiServer {
                 String sessionId = requestBody.get("sessionId").getAsString();
                 String matchId = requestBody.get("matchId").getAsString();
                 int cell = requestBody.get("cell").getAsInt();
+                // Optional: the state version the client last saw
+                long expectedVersion = requestBody.has("expectedVersion")
+                    ? requestBody.get("expectedVersion").getAsLong() : -1;
                 
                 System.out.println("Move request - Session: " + sessionId + ", Match: " + matchId + ", Cell: " + cell);
                 
-                boolean success = gameService.makeMove(sessionId, matchId, cell).get();
-                System.out.println("Move result: " + success);
+                GameStateCache.MoveResult result = gameService.makeMove(sessionId, matchId, cell, expectedVersion).get();
+                System.out.println("Move result: " + result);
                 
                 JsonObject responseJson = new JsonObject();
-                responseJson.addProperty("success", success);
+                responseJson.addProperty("success", result == GameStateCache.MoveResult.APPLIED);
+                responseJson.addProperty("result", result.name());
+                GameStateCache.GameState game = GameStateCache.getInstance().getGame(matchId);
+                if (game != null) {
+                    responseJson.addProperty("version", game.version());
+                }
+                if (result == GameStateCache.MoveResult.VERSION_CONFLICT) {
+                    response.status(409);
+                }
                 
                 return gson.toJson(responseJson);
             } catch (Exception e) {
@@ -534,6 +557,122 @@ public class RestApiServer {
             return gson.toJson(scoreTracker.getStats());
         });
         
+        // Get WebSocket session registry statistics (live vs leaked sockets)
+        Spark.get("/api/admin/ws-session-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(wsNotifier.getSessionStats());
+        });
+        
+        // Get per-connection permessage-deflate byte counters
+        Spark.get("/api/admin/ws-compression-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(wsNotifier.getCompressionStats());
+        });
+        
+        // Get outbound buffer levels and coalescing counters for slow clients
+        Spark.get("/api/admin/ws-backpressure-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(wsNotifier.getBackpressureStats());
+        });
+        
+        // Get ping/pong RTT, missed pings and quality from the in-memory liveness table
+        Spark.get("/api/admin/ws-liveness-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(LivenessTracker.getInstance().getStats());
+        });
+        
+        // Get heartbeat sweep duration, lag and bucket sizes
+        Spark.get("/api/admin/ws-heartbeat-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(wsNotifier.getHeartbeatStats());
+        });
+        
+        // Get coalesced last-activity writes to player_sessions
+        Spark.get("/api/admin/session-activity-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(ActivityRecorder.getInstance().getStats());
+        });
+        
+        // In-memory health of one session (quality, RTT, errors, last seen)
+        Spark.get("/api/admin/ws-health/:sessionId", (request, response) -> {
+            response.type("application/json");
+            LivenessTracker.Liveness health = LivenessTracker.getInstance().get(request.params(":sessionId"));
+            if (health == null) {
+                response.status(404);
+                JsonObject errorResponse = new JsonObject();
+                errorResponse.addProperty("success", false);
+                errorResponse.addProperty("error", "No connection health for session");
+                return errorResponse.toString();
+            }
+            return gson.toJson(health.toMap());
+        });
+        
+        // Get in-memory outbox hits vs database spills for offline sessions
+        Spark.get("/api/admin/ws-outbox-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(wsNotifier.getOutboxStats());
+        });
+        
+        // Get sequence / replay log usage and resume outcomes
+        Spark.get("/api/admin/ws-replay-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(wsNotifier.getReplayStats());
+        });
+        
+        // Get every registered thread pool: queue depth, active threads, task wait/run times
+        Spark.get("/api/admin/executors", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(ExecutorRegistry.getInstance().getStats());
+        });
+        
+        // Get match/lobby topic subscriptions and publish counts
+        Spark.get("/api/admin/ws-topic-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(wsNotifier.getTopicStats());
+        });
+        
+        // Cached matches and optimistic-concurrency counters for moves
+        Spark.get("/api/admin/game-cache-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(GameStateCache.getInstance().getStats());
+        });
+        
+        // Write-behind queue of finished matches: depth, lag, batches, failures
+        Spark.get("/api/admin/match-writer-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(CompletedMatchWriter.getInstance().getStats());
+        });
+        
+        // Get per-session notification retry timers
+        Spark.get("/api/admin/ws-retry-stats", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(wsNotifier.getRetryStats());
+        });
+        
+        // Config can be read and reloaded only from the server host itself
+        Spark.before("/api/admin/config", (request, response) -> requireLocal(request));
+        Spark.before("/api/admin/config/*", (request, response) -> requireLocal(request));
+        
+        // Current configuration values and which keys can be reloaded
+        Spark.get("/api/admin/config", (request, response) -> {
+            response.type("application/json");
+            return gson.toJson(ServerConfig.getInstance().describe());
+        });
+        
+        // Re-read the config file and environment; only reloadable keys apply
+        Spark.post("/api/admin/config/reload", (request, response) -> {
+            response.type("application/json");
+            try {
+                return gson.toJson(ServerConfig.getInstance().reload());
+            } catch (IllegalArgumentException e) {
+                response.status(400);
+                JsonObject errorResponse = new JsonObject();
+                errorResponse.addProperty("success", false);
+                errorResponse.addProperty("error", e.getMessage());
+                return errorResponse.toString();
+            }
+        });
+        
         // Get all user stats across all games (goose, tictactoe, puzzle, pong, space)
         Spark.get("/api/user/:username/all-stats", (request, response) -> {
             response.type("application/json");
@@ -635,6 +774,19 @@ public class RestApiServer {
         System.out.println("REST API server started on http://localhost:" + port);
     }
     
+    private static void requireLocal(Request request) {
+        boolean local;
+        try {
+            local = InetAddress.getByName(request.ip()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            local = false;
+        }
+        if (!local) {
+            System.err.println("Rejected " + request.requestMethod() + " " + request.pathInfo() + " from " + request.ip());
+            Spark.halt(403, "{\"success\":false,\"error\":\"Only available from localhost\"}");
+        }
+    }
+    
     public void stop() {
         scoreTracker.shutdown();
         Spark.stop();
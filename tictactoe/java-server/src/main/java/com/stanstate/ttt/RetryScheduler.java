@@ -0,0 +1,138 @@
+package com.stanstate.ttt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One timer per session, backed by a DelayQueue.
+ *
+ * A session is scheduled for the moment its earliest pending_notifications
+ * row becomes due; the worker thread sleeps until then and hands the session
+ * id to the retry callback. Scheduling an already scheduled session keeps the
+ * earlier of the two times, so there is never more than one entry per
+ * session. Nothing runs while no retry is due.
+ */
+public class RetryScheduler {
+    private final DelayQueue<Entry> queue = new DelayQueue<>();
+    private final ConcurrentHashMap<String, Entry> bySession = new ConcurrentHashMap<>();
+    private final Consumer<String> retry;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong totalLagMs = new AtomicLong();
+    private volatile long maxLagMs;
+
+    private static final class Entry implements Delayed {
+        final String sessionId;
+        final long dueAt; // System.currentTimeMillis() based
+
+        Entry(String sessionId, long dueAt) {
+            this.sessionId = sessionId;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Entry) other).dueAt);
+        }
+    }
+
+    public RetryScheduler(String name, Consumer<String> retry) {
+        this.retry = retry;
+        this.worker = ExecutorRegistry.getInstance().thread(name, this::run, true);
+        this.worker.start();
+    }
+
+    /**
+     * Run the retry for this session at dueAt (epoch millis), unless it is
+     * already scheduled earlier.
+     */
+    public void schedule(String sessionId, long dueAt) {
+        bySession.compute(sessionId, (k, current) -> {
+            if (current != null) {
+                if (current.dueAt <= dueAt) {
+                    return current;
+                }
+                queue.remove(current);
+            }
+            Entry entry = new Entry(sessionId, dueAt);
+            queue.add(entry);
+            scheduled.incrementAndGet();
+            return entry;
+        });
+    }
+
+    public void fireNow(String sessionId) {
+        schedule(sessionId, System.currentTimeMillis());
+    }
+
+    public void cancel(String sessionId) {
+        bySession.computeIfPresent(sessionId, (k, current) -> {
+            queue.remove(current);
+            return null;
+        });
+    }
+
+    private void run() {
+        while (running) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            // A newer schedule() may have replaced this entry
+            if (!bySession.remove(entry.sessionId, entry)) {
+                continue;
+            }
+            long lag = Math.max(0, System.currentTimeMillis() - entry.dueAt);
+            fired.incrementAndGet();
+            totalLagMs.addAndGet(lag);
+            if (lag > maxLagMs) {
+                maxLagMs = lag;
+            }
+            try {
+                retry.accept(entry.sessionId);
+            } catch (Exception e) {
+                System.err.println("Retry for session " + entry.sessionId + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long firedCount = fired.get();
+        Entry next = queue.peek();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessionsScheduled", bySession.size());
+        stats.put("nextDueInMs", next != null ? Math.max(0, next.getDelay(TimeUnit.MILLISECONDS)) : null);
+        stats.put("scheduled", scheduled.get());
+        stats.put("fired", firedCount);
+        stats.put("averageLagMs", firedCount > 0 ? (double) totalLagMs.get() / firedCount : 0.0);
+        stats.put("maxLagMs", maxLagMs);
+        return stats;
+    }
+}
@@ -1,5 +1,8 @@
 package com.stanstate.ttt;
 import com.google.gson.JsonObject;
+import org.java_websocket.WebSocket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 public abstract class Room {
   protected final String id;
@@ -9,4 +12,10 @@ public abstract class Room {
   public abstract void onMove(ClientSession s, int cell);
   public abstract void onLeave(ClientSession s);
   protected void send(ClientSession s, JsonObject m){ s.send(m); }
+  // Serialize once, frame once, write to every recipient (players, spectators...)
+  protected void broadcast(JsonObject m, List<ClientSession> recipients){
+    List<WebSocket> conns = new ArrayList<>(recipients.size());
+    for (ClientSession s : recipients) if (s != null) conns.add(s.conn);
+    Broadcaster.broadcast(m, conns);
+  }
 }
\ No newline at end of file
@@ -1,18 +1,51 @@
 package com.stanstate.ttt;
-import com.google.gson.*;
+import com.google.gson.JsonObject;
 import org.java_websocket.server.WebSocketServer;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class Server extends WebSocketServer {
   private static WebSocketNotifier wsNotifier;
+  private final MessageRouter router = new MessageRouter();
   
-  public Server(int port) { 
-    super(new InetSocketAddress(port)); 
+  // Frames smaller than ws.deflateThreshold skip compression (tiny "state" frames would grow)
+  public Server(int port) {
+    this(port,
+         ServerConfig.getInstance().get(ServerConfig.WS_DEFLATE),
+         ServerConfig.getInstance().get(ServerConfig.WS_DEFLATE_THRESHOLD));
+  }
+  
+  public Server(int port, boolean deflate, int deflateThreshold) { 
+    super(new InetSocketAddress(port), drafts(deflate, deflateThreshold)); 
     if (wsNotifier == null) {
-      wsNotifier = new WebSocketNotifier();
+      wsNotifier = WebSocketNotifier.getInstance();
     }
+    registerRoutes();
+  }
+  
+  // permessage-deflate is only used when the client offers it in the handshake;
+  // Draft_6455 falls back to the uncompressed default extension otherwise.
+  // Clients asking for the binary subprotocol get it; the empty protocol
+  // accepts everyone else, who stay on JSON.
+  private static List<Draft> drafts(boolean deflate, int deflateThreshold) {
+    List<IExtension> extensions = deflate
+      ? Collections.singletonList(new MeteredDeflateExtension(deflateThreshold))
+      : Collections.emptyList();
+    List<IProtocol> protocols = Arrays.asList(new Protocol(BinaryProtocol.NAME), new Protocol(""));
+    return Collections.singletonList(new Draft_6455(extensions, protocols));
   }
   
   public static WebSocketNotifier getNotifier() {
@@ -23,11 +56,21 @@ public class Server extends WebSocketServer {
   public void onOpen(WebSocket conn, ClientHandshake handshake) {
     System.out.println("=== WebSocket onOpen ===");
     System.out.println("Client connected: " + conn.getRemoteSocketAddress());
+    ConnectionContext ctx = new ConnectionContext();
+    if (conn.getDraft() instanceof Draft_6455 draft && draft.getExtension() instanceof MeteredDeflateExtension deflate) {
+      ctx.setDeflate(deflate);
+      System.out.println("permessage-deflate negotiated (threshold " + deflate.getThreshold() + " bytes)");
+    }
+    if (conn.getProtocol() != null && BinaryProtocol.NAME.equals(conn.getProtocol().getProvidedProtocol())) {
+      ctx.setBinary(true);
+      System.out.println("Binary protocol negotiated: " + BinaryProtocol.NAME);
+    }
+    conn.setAttachment(ctx);
     
     try {
       // Send welcome message
       String welcomeMessage = "{\"t\":\"server_hello\",\"msg\":\"Server can send to client\"}";
-      conn.send(welcomeMessage);
+      OutboundBackpressure.sendBackground(conn, () -> conn.send(welcomeMessage));
       System.out.println("Welcome message sent to client");
       
     } catch (Exception e) {
@@ -38,68 +81,22 @@ public class Server extends WebSocketServer {
   
   @Override 
   public void onMessage(WebSocket conn, String message) {
-    System.out.println("=== WebSocket onMessage ===");
-    System.out.println("Received from " + conn.getRemoteSocketAddress() + ": " + message);
-    
+    LivenessTracker.getInstance().touch(conn);
     try {
-      // Parse message to get session ID and handle different message types
-      if (message.contains("sessionId") || message.contains("t")) {
-        System.out.println("Processing structured message...");
-        Gson gson = new Gson();
-        JsonObject msg = gson.fromJson(message, JsonObject.class);
-        
-        // Handle heartbeat responses
-        if (msg.has("t") && "heartbeat_response".equals(msg.get("t").getAsString())) {
-          if (msg.has("sessionId")) {
-            String sessionId = msg.get("sessionId").getAsString();
-            wsNotifier.handleHeartbeatResponse(sessionId);
-            System.out.println("Processed heartbeat response from " + sessionId);
-          }
-          return;
-        }
-        
-        // Handle session registration
-        if (msg.has("sessionId")) {
-          String sessionId = msg.get("sessionId").getAsString();
-          System.out.println("Extracted sessionId: " + sessionId);
-          wsNotifier.registerConnection(sessionId, conn);
-          System.out.println("Registered WebSocket for session: " + sessionId);
-          
-          // Send enhanced welcome message with connection info
-          JsonObject response = new JsonObject();
-          response.addProperty("t", "connection_established");
-          response.addProperty("sessionId", sessionId);
-          response.addProperty("message", "WebSocket connection established successfully");
-          response.addProperty("timestamp", System.currentTimeMillis());
-          response.addProperty("serverVersion", "1.0.0");
-          conn.send(response.toString());
-        }
-        
-        // Handle connection quality feedback
-        if (msg.has("t") && "connection_quality".equals(msg.get("t").getAsString())) {
-          if (msg.has("sessionId") && msg.has("quality")) {
-            String sessionId = msg.get("sessionId").getAsString();
-            double quality = msg.get("quality").getAsDouble();
-            updateConnectionQuality(sessionId, quality);
-          }
-        }
-        
-      } else {
+      if (!router.dispatch(conn, message)) {
         // Handle legacy or simple messages
-        System.out.println("Message does not contain sessionId: " + message);
         JsonObject response = new JsonObject();
         response.addProperty("t", "echo");
         response.addProperty("original", message);
         response.addProperty("timestamp", System.currentTimeMillis());
         conn.send(response.toString());
       }
-      
-    } catch (JsonSyntaxException e) {
-      System.err.println("Invalid JSON received: " + e.getMessage());
+    } catch (MessageRouter.MalformedMessageException e) {
+      System.err.println("Rejected frame from " + conn.getRemoteSocketAddress() + ": " + e.getMessage());
       try {
         JsonObject errorResponse = new JsonObject();
         errorResponse.addProperty("t", "error");
-        errorResponse.addProperty("message", "Invalid JSON format");
+        errorResponse.addProperty("message", e.getMessage());
         errorResponse.addProperty("timestamp", System.currentTimeMillis());
         conn.send(errorResponse.toString());
       } catch (Exception se) {
@@ -111,16 +108,181 @@ public class Server extends WebSocketServer {
     }
   }
   
+  @Override
+  public void onMessage(WebSocket conn, ByteBuffer message) {
+    LivenessTracker.getInstance().touch(conn);
+    // Binary frames only carry BinaryProtocol client messages
+    try {
+      if (!message.hasRemaining()) {
+        return;
+      }
+      byte op = message.get();
+      if (op == BinaryProtocol.OP_MOVE && message.remaining() >= 5) {
+        int handle = message.getInt();
+        int cell = Byte.toUnsignedInt(message.get());
+        GameStateCache.GameState game = cell <= 8 ? GameStateCache.getInstance().getGameByHandle(handle) : null;
+        if (game == null) {
+          // Unknown match or a cell off the board; neither reaches handleMove
+          conn.send(BinaryProtocol.encodeRejected(handle, cell));
+          return;
+        }
+        ClientMessages.Move move = new ClientMessages.Move();
+        move.matchId = game.matchId;
+        move.cell = cell;
+        handleMove(conn, move);
+      } else if (op == BinaryProtocol.OP_REGISTER && message.remaining() > 8) {
+        ClientMessages.Register register = new ClientMessages.Register();
+        long lastSeq = message.getLong();
+        register.lastSeq = lastSeq != 0 ? lastSeq : null;
+        register.sessionId = StandardCharsets.UTF_8.decode(message).toString();
+        handleRegister(conn, register);
+      } else {
+        System.err.println("Rejected binary frame from " + conn.getRemoteSocketAddress() + ": opcode " + op);
+      }
+    } catch (Exception e) {
+      System.err.println("Error processing binary message: " + e.getMessage());
+      e.printStackTrace();
+    }
+  }
+  
+  private void registerRoutes() {
+    router.register("heartbeat_response", ClientMessages.HeartbeatResponse.class, (conn, msg) -> {
+      if (msg.sessionId != null) {
+        wsNotifier.handleHeartbeatResponse(msg.sessionId);
+      }
+    });
+    
+    router.register("connection_quality", ClientMessages.ConnectionQuality.class, (conn, msg) -> {
+      String sessionId = ConnectionContext.sessionOf(conn);
+      if (sessionId == null) {
+        sessionId = msg.sessionId;
+      }
+      if (sessionId != null && msg.quality != null) {
+        // In-memory only; LivenessTracker flushes to connection_health in batches
+        LivenessTracker.getInstance().recordClientQuality(sessionId, msg.quality);
+      }
+    });
+    
+    router.register("move", ClientMessages.Move.class, this::handleMove);
+    
+    router.register("lobby_subscribe", ClientMessages.LobbySubscription.class, (conn, msg) -> {
+      String sessionId = ConnectionContext.sessionOf(conn);
+      if (sessionId == null && msg.sessionId != null) {
+        wsNotifier.registerConnection(msg.sessionId, conn);
+        sessionId = msg.sessionId;
+      }
+      if (sessionId != null) {
+        wsNotifier.subscribeLobby(sessionId);
+      }
+    });
+    
+    router.register("lobby_unsubscribe", ClientMessages.LobbySubscription.class, (conn, msg) -> {
+      String sessionId = ConnectionContext.sessionOf(conn);
+      if (sessionId != null) {
+        wsNotifier.unsubscribe(TopicRegistry.LOBBY, sessionId);
+      }
+    });
+    
+    // Frames without a known type are session registrations
+    router.registerDefault(ClientMessages.Register.class, this::handleRegister);
+  }
+  
+  private void handleRegister(WebSocket conn, ClientMessages.Register msg) {
+    if (msg.sessionId == null) {
+      JsonObject errorResponse = new JsonObject();
+      errorResponse.addProperty("t", "error");
+      errorResponse.addProperty("message", "Unknown message type");
+      errorResponse.addProperty("timestamp", System.currentTimeMillis());
+      conn.send(errorResponse.toString());
+      return;
+    }
+    wsNotifier.registerConnection(msg.sessionId, conn, msg.lastSeq);
+    System.out.println("Registered WebSocket for session: " + msg.sessionId);
+    
+    // Send enhanced welcome message with connection info
+    JsonObject response = new JsonObject();
+    response.addProperty("t", "connection_established");
+    response.addProperty("sessionId", msg.sessionId);
+    response.addProperty("message", "WebSocket connection established successfully");
+    response.addProperty("timestamp", System.currentTimeMillis());
+    response.addProperty("serverVersion", "1.0.0");
+    String established = response.toString();
+    OutboundBackpressure.sendBackground(conn, () -> conn.send(established));
+  }
+  
+  private void handleMove(WebSocket conn, ClientMessages.Move msg) {
+    // The socket's bound session is authoritative; fall back to the payload
+    // for clients that send a move before registering
+    String sessionId = ConnectionContext.sessionOf(conn);
+    if (sessionId == null && msg.sessionId != null) {
+      wsNotifier.registerConnection(msg.sessionId, conn);
+      sessionId = msg.sessionId;
+    }
+    if (sessionId == null || msg.matchId == null || msg.cell == null) {
+      sendMoveRejected(conn, msg, "Move requires a registered session, matchId and cell", null);
+      return;
+    }
+    
+    GameStateCache gameCache = GameStateCache.getInstance();
+    long expectedVersion = msg.expectedVersion != null ? msg.expectedVersion : -1;
+    GameStateCache.MoveResult result = gameCache.tryMove(msg.matchId, msg.cell, sessionId, expectedVersion);
+    if (result != GameStateCache.MoveResult.APPLIED) {
+      sendMoveRejected(conn, msg, result == GameStateCache.MoveResult.VERSION_CONFLICT ? "Version conflict" : "Invalid move",
+                       result);
+      return;
+    }
+    
+    // Push the new board to both seats right away
+    GameStateCache.GameState game = gameCache.getGame(msg.matchId);
+    if (game != null) {
+      wsNotifier.notifyMatchState(game);
+    }
+  }
+  
+  private void sendMoveRejected(WebSocket conn, ClientMessages.Move msg, String reason, GameStateCache.MoveResult result) {
+    GameStateCache.GameState game = msg.matchId != null ? GameStateCache.getInstance().getGame(msg.matchId) : null;
+    if (ConnectionContext.isBinary(conn) && game != null) {
+      conn.send(BinaryProtocol.encodeRejected(game.handle, msg.cell != null ? msg.cell : -1));
+      return;
+    }
+    JsonObject rejected = new JsonObject();
+    rejected.addProperty("t", "move_rejected");
+    rejected.addProperty("match", msg.matchId);
+    if (msg.cell != null) {
+      rejected.addProperty("cell", msg.cell);
+    }
+    rejected.addProperty("message", reason);
+    if (result != null) {
+      rejected.addProperty("reason", result.name());
+    }
+    if (game != null) {
+      // Lets a client that lost a race re-sync before retrying
+      rejected.addProperty("version", game.version());
+    }
+    conn.send(rejected.toString());
+  }
+  
+  // Pings (ours and the library's lost-connection check) carry their send
+  // time so the pong yields an RTT sample
+  @Override
+  public PingFrame onPreparePing(WebSocket conn) {
+    return LivenessTracker.getInstance().preparePing(conn);
+  }
+  
+  @Override
+  public void onWebsocketPong(WebSocket conn, Framedata f) {
+    LivenessTracker.getInstance().onPong(conn, f);
+  }
+  
   @Override 
   public void onClose(WebSocket conn, int code, String reason, boolean remote) { 
     System.out.println("=== WebSocket onClose ===");
     System.out.println("WebSocket disconnected: " + conn.getRemoteSocketAddress() + 
                       " code=" + code + " reason=" + reason);
     
-    // Find and unregister the session by checking all connections
-    String disconnectedSession = findSessionByConnection(conn);
+    // Release the session bound to this socket (attachment lookup, no scan)
+    String disconnectedSession = wsNotifier.unregisterConnection(conn);
     if (disconnectedSession != null) {
-      wsNotifier.unregisterConnection(disconnectedSession);
       System.out.println("Unregistered session: " + disconnectedSession);
     }
   }
@@ -132,11 +294,11 @@ public class Server extends WebSocketServer {
     ex.printStackTrace();
     
     // Try to find and handle the errored connection
-    String sessionId = findSessionByConnection(conn);
+    String sessionId = ConnectionContext.sessionOf(conn);
     if (sessionId != null) {
       System.err.println("Error on session: " + sessionId);
       // Update connection quality to reflect error
-      updateConnectionQuality(sessionId, 0.1);
+      LivenessTracker.getInstance().recordError(sessionId);
     }
   }
   
@@ -145,29 +307,6 @@ public class Server extends WebSocketServer {
     System.out.println("=== WebSocket Server Started ===");
     System.out.println("Server listening on: " + getAddress());
     setConnectionLostTimeout(0);
-    setConnectionLostTimeout(100);
-  }
-  
-  private String findSessionByConnection(WebSocket conn) {
-    // This is a simplified approach - in a real system we'd need better tracking
-    // For now, return null and rely on cleanup tasks
-    return null;
-  }
-  
-  private void updateConnectionQuality(String sessionId, double quality) {
-    try {
-      DatabaseManager dbManager = DatabaseManager.getInstance();
-      try (java.sql.Connection conn = dbManager.getConnection()) {
-        java.sql.PreparedStatement stmt = conn.prepareStatement(
-          "UPDATE connection_health SET connection_quality = ? WHERE session_id = ?"
-        );
-        stmt.setDouble(1, quality);
-        stmt.setString(2, sessionId);
-        stmt.executeUpdate();
-        System.out.println("Updated connection quality for " + sessionId + " to " + quality);
-      }
-    } catch (java.sql.SQLException e) {
-      System.err.println("Failed to update connection quality: " + e.getMessage());
-    }
+    setConnectionLostTimeout(ServerConfig.getInstance().get(ServerConfig.WS_CONNECTION_LOST_TIMEOUT_SECONDS));
   }
 }
\ No newline at end of file
@@ -0,0 +1,278 @@
+package com.stanstate.ttt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Typed server configuration.
+ *
+ * Values are resolved in this order, later sources winning:
+ *   1. built-in defaults (the values that used to be hard-coded)
+ *   2. the properties file (-Dttt.config, TTT_CONFIG, or ./ttt-server.properties)
+ *   3. environment variables: TTT_ + key upper-cased with '.' as '_'
+ *      (score.batchSize -> TTT_SCORE_BATCHSIZE)
+ *   4. system properties: ttt. + key (-Dttt.ws.deflate=false)
+ *
+ * Everything is validated on load, so a bad value stops startup instead of
+ * surfacing later. Keys marked reloadable are read at the point of use and
+ * pick up new values on {@link #reload()}; the rest (pool sizes, ports, URLs)
+ * only change on restart.
+ */
+public final class ServerConfig {
+    private static final List<Key<?>> KEYS = new ArrayList<>();
+
+    // Network
+    public static final Key<Integer> WS_PORT = intKey("ws.port", 8080, 1, 65535, false);
+    public static final Key<Integer> HTTP_PORT = intKey("http.port", 8081, 1, 65535, false);
+    public static final Key<Boolean> WS_DEFLATE = boolKey("ws.deflate", true, false);
+    public static final Key<Integer> WS_DEFLATE_THRESHOLD = intKey("ws.deflateThreshold", 256, 0, 1 << 20, false);
+    public static final Key<Integer> WS_CONNECTION_LOST_TIMEOUT_SECONDS = intKey("ws.connectionLostTimeoutSeconds", 100, 0, 3600, false);
+    public static final Key<Integer> WS_OUTBOUND_HIGH_WATER_BYTES = intKey("ws.outboundHighWaterBytes", 64 * 1024, 1024, 64 << 20, true);
+    public static final Key<Integer> WS_OUTBOUND_CLOSE_AFTER_MS = intKey("ws.outboundCloseAfterMs", 10000, 100, 600000, true);
+    public static final Key<Integer> WS_BACKGROUND_RATE_PER_SECOND = intKey("ws.backgroundRatePerSecond", 20, 1, 10000, true);
+    public static final Key<Integer> WS_BACKGROUND_BURST = intKey("ws.backgroundBurst", 10, 1, 10000, true);
+    public static final Key<Integer> WS_BACKGROUND_QUEUE_SIZE = intKey("ws.backgroundQueueSize", 256, 1, 100000, true);
+
+    // Database
+    public static final Key<String> DB_URL = stringKey("db.url",
+        "jdbc:h2:./database/ttt_game;MODE=MySQL;DB_CLOSE_DELAY=-1;AUTO_SERVER=TRUE;LOCK_TIMEOUT=15000", false);
+    public static final Key<Integer> DB_POOL_SIZE = intKey("db.poolSize", 10, 1, 200, false);
+
+    // Game logic
+    public static final Key<Integer> GAME_THREADS = intKey("game.threads", 8, 1, 256, false);
+    public static final Key<Integer> GAME_QUEUE_CAPACITY = intKey("game.queueCapacity", 1000, 1, 1_000_000, false);
+    public static final Key<Integer> GAME_TURN_TIMEOUT_SECONDS = intKey("game.turnTimeoutSeconds", 120, 5, 3600, true);
+    public static final Key<Integer> GAME_LOBBY_PAGE_SIZE = intKey("game.lobbyPageSize", 100, 1, 1000, true);
+
+    // Executors
+    public static final Key<Integer> EXECUTOR_MAINTENANCE_THREADS = intKey("executor.maintenanceThreads", 2, 1, 16, false);
+
+    // Score tracking
+    public static final Key<Integer> SCORE_QUEUE_CAPACITY = intKey("score.queueCapacity", 10000, 1, 10_000_000, false);
+    public static final Key<Integer> SCORE_BATCH_SIZE = intKey("score.batchSize", 10, 1, 10000, true);
+    public static final Key<Integer> SCORE_BATCH_TIMEOUT_MS = intKey("score.batchTimeoutMs", 100, 1, 60000, true);
+
+    // Completed match persistence (write-behind)
+    public static final Key<Integer> MATCH_WRITER_QUEUE_CAPACITY = intKey("matchWriter.queueCapacity", 10000, 1, 10_000_000, false);
+    public static final Key<Integer> MATCH_WRITER_BATCH_SIZE = intKey("matchWriter.batchSize", 50, 1, 10000, true);
+    public static final Key<Integer> MATCH_WRITER_BATCH_TIMEOUT_MS = intKey("matchWriter.batchTimeoutMs", 100, 1, 60000, true);
+    public static final Key<Integer> MATCH_WRITER_MAX_BACKOFF_MS = intKey("matchWriter.maxBackoffMs", 5000, 100, 600000, true);
+    public static final Key<Integer> MATCH_WRITER_MAX_RETRIES = intKey("matchWriter.maxRetries", 5, 1, 1000, true);
+
+    // Notifications
+    public static final Key<Integer> NOTIFIER_RETRY_INTERVAL_SECONDS = intKey("notifier.retryIntervalSeconds", 10, 1, 3600, true);
+    public static final Key<Integer> NOTIFIER_HEARTBEAT_INTERVAL_SECONDS = intKey("notifier.heartbeatIntervalSeconds", 30, 1, 3600, true);
+    public static final Key<Integer> NOTIFIER_HEARTBEAT_BUCKETS = intKey("notifier.heartbeatBuckets", 16, 1, 1024, false);
+    public static final Key<Integer> NOTIFIER_OUTBOX_CAPACITY = intKey("notifier.outboxCapacity", 32, 1, 4096, false);
+    public static final Key<Integer> NOTIFIER_REPLAY_LOG_SIZE = intKey("notifier.replayLogSize", 64, 1, 4096, true);
+    public static final Key<Integer> NOTIFIER_OUTBOX_TTL_SECONDS = intKey("notifier.outboxTtlSeconds", 600, 10, 86400, true);
+    // Both must stay well under the 2 minute stale-session cutoff in DatabaseManager
+    public static final Key<Integer> ACTIVITY_FLUSH_INTERVAL_SECONDS = intKey("activity.flushIntervalSeconds", 5, 1, 60, true);
+    public static final Key<Integer> LIVENESS_SNAPSHOT_INTERVAL_SECONDS = intKey("liveness.snapshotIntervalSeconds", 60, 5, 90, true);
+
+    private static volatile ServerConfig instance;
+
+    private final Path file;
+    private volatile Map<String, Object> values;
+
+    /**
+     * A typed configuration key with its default and allowed range.
+     */
+    public static final class Key<T> {
+        public final String name;
+        public final T defaultValue;
+        public final boolean reloadable;
+        private final Class<T> type;
+        private final long min;
+        private final long max;
+
+        private Key(String name, Class<T> type, T defaultValue, long min, long max, boolean reloadable) {
+            this.name = name;
+            this.type = type;
+            this.defaultValue = defaultValue;
+            this.min = min;
+            this.max = max;
+            this.reloadable = reloadable;
+        }
+
+        public String envName() {
+            return "TTT_" + name.toUpperCase().replace('.', '_');
+        }
+
+        private Object parse(String raw) {
+            String value = raw.trim();
+            if (type == Integer.class) {
+                long parsed;
+                try {
+                    parsed = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(name + " must be an integer, got '" + raw + "'");
+                }
+                if (parsed < min || parsed > max) {
+                    throw new IllegalArgumentException(name + " must be between " + min + " and " + max + ", got " + parsed);
+                }
+                return (int) parsed;
+            }
+            if (type == Boolean.class) {
+                if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                    throw new IllegalArgumentException(name + " must be true or false, got '" + raw + "'");
+                }
+                return Boolean.parseBoolean(value);
+            }
+            if (value.isEmpty()) {
+                throw new IllegalArgumentException(name + " must not be empty");
+            }
+            return value;
+        }
+    }
+
+    private static Key<Integer> intKey(String name, int def, int min, int max, boolean reloadable) {
+        return register(new Key<>(name, Integer.class, def, min, max, reloadable));
+    }
+
+    private static Key<Boolean> boolKey(String name, boolean def, boolean reloadable) {
+        return register(new Key<>(name, Boolean.class, def, 0, 0, reloadable));
+    }
+
+    private static Key<String> stringKey(String name, String def, boolean reloadable) {
+        return register(new Key<>(name, String.class, def, 0, 0, reloadable));
+    }
+
+    private static <T> Key<T> register(Key<T> key) {
+        KEYS.add(key);
+        return key;
+    }
+
+    private ServerConfig(Path file, Map<String, Object> values) {
+        this.file = file;
+        this.values = values;
+    }
+
+    /**
+     * Load and validate the configuration. Called once at startup; throws
+     * IllegalArgumentException listing every invalid key.
+     */
+    public static synchronized ServerConfig load(Path file) {
+        ServerConfig config = new ServerConfig(file, resolve(file));
+        instance = config;
+        System.out.println("Server configuration loaded" + (Files.exists(file) ? " from " + file.toAbsolutePath() : " (defaults, no " + file + ")"));
+        return config;
+    }
+
+    public static ServerConfig getInstance() {
+        ServerConfig config = instance;
+        return config != null ? config : loadDefault();
+    }
+
+    // Tools like DatabaseInspector run without Main; use the default file
+    private static synchronized ServerConfig loadDefault() {
+        return instance != null ? instance : load(defaultPath());
+    }
+
+    public static Path defaultPath() {
+        String path = System.getProperty("ttt.config");
+        if (path == null) {
+            path = System.getenv("TTT_CONFIG");
+        }
+        return Paths.get(path != null ? path : "ttt-server.properties");
+    }
+
+    public <T> T get(Key<T> key) {
+        return key.type.cast(values.get(key.name));
+    }
+
+    /**
+     * Re-read the file and environment. Reloadable keys take effect right away;
+     * changes to the other keys are reported but need a restart. Nothing is
+     * applied if any value is invalid.
+     */
+    public synchronized Map<String, Object> reload() {
+        Map<String, Object> fresh = resolve(file);
+        Map<String, Object> merged = new LinkedHashMap<>(values);
+        List<String> applied = new ArrayList<>();
+        List<String> restartRequired = new ArrayList<>();
+        for (Key<?> key : KEYS) {
+            Object current = values.get(key.name);
+            Object next = fresh.get(key.name);
+            if (next.equals(current)) {
+                continue;
+            }
+            if (key.reloadable) {
+                merged.put(key.name, next);
+                applied.add(key.name);
+            } else {
+                restartRequired.add(key.name);
+            }
+        }
+        values = Collections.unmodifiableMap(merged);
+        System.out.println("Configuration reloaded: applied " + applied + ", restart required for " + restartRequired);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("applied", applied);
+        result.put("restartRequired", restartRequired);
+        return result;
+    }
+
+    /**
+     * Current values, with reloadable keys marked, for the admin endpoint.
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (Key<?> key : KEYS) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("value", values.get(key.name));
+            entry.put("default", key.defaultValue);
+            entry.put("reloadable", key.reloadable);
+            out.put(key.name, entry);
+        }
+        return out;
+    }
+
+    private static Map<String, Object> resolve(Path file) {
+        Properties props = new Properties();
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                props.load(in);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot read config file " + file + ": " + e.getMessage(), e);
+            }
+        }
+
+        Map<String, Object> resolved = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+        for (Key<?> key : KEYS) {
+            String raw = props.getProperty(key.name);
+            String env = System.getenv(key.envName());
+            if (env != null) {
+                raw = env;
+            }
+            String sys = System.getProperty("ttt." + key.name);
+            if (sys != null) {
+                raw = sys;
+            }
+            try {
+                resolved.put(key.name, raw != null ? key.parse(raw) : key.defaultValue);
+            } catch (IllegalArgumentException e) {
+                errors.add(e.getMessage());
+            }
+        }
+        for (String name : props.stringPropertyNames()) {
+            if (KEYS.stream().noneMatch(k -> k.name.equals(name))) {
+                errors.add("unknown key " + name);
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Invalid server configuration: " + String.join("; ", errors));
+        }
+        return Collections.unmodifiableMap(resolved);
+    }
+}
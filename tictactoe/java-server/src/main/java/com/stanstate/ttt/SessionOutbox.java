@@ -0,0 +1,246 @@
+package com.stanstate.ttt;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory buffer of undelivered messages per session.
+ *
+ * Messages for an offline session wait here instead of going to
+ * pending_notifications. Each session gets a ring of notifier.outboxCapacity
+ * slots; when it is full the oldest message is handed back to the caller to
+ * spill to the database. Entries older than notifier.outboxTtlSeconds are
+ * dropped, matching the 10 minute cleanup of pending_notifications.
+ *
+ * A message with a coalescing key (see OutboundBackpressure.coalesceKey:
+ * the match of a "state"/"over") replaces any buffered message of the same
+ * session with that key, so an offline player collects one board per match
+ * instead of every intermediate one.
+ */
+public class SessionOutbox {
+    private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<>();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong deliveredFromMemory = new AtomicLong();
+    private final AtomicLong spilledOverflow = new AtomicLong();
+    private final AtomicLong spilledShutdown = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong compacted = new AtomicLong();
+
+    public static class Message {
+        public final String sessionId;
+        public final String type;
+        public final String data;
+        // Null when the message never supersedes another
+        public final String coalesceKey;
+        public final long createdAt;
+
+        Message(String sessionId, String type, String data, String coalesceKey) {
+            this.sessionId = sessionId;
+            this.type = type;
+            this.data = data;
+            this.coalesceKey = coalesceKey;
+            this.createdAt = System.currentTimeMillis();
+        }
+    }
+
+    // Fixed-size circular buffer. Only touched inside rings.compute*() or
+    // after rings.remove(), so the map's per-key locking guards it.
+    private static class Ring {
+        final Message[] slots;
+        int head;
+        int size;
+
+        Ring(int capacity) {
+            slots = new Message[capacity];
+        }
+
+        // Returns the evicted oldest message when full, else null
+        Message add(Message m) {
+            Message evicted = null;
+            if (size == slots.length) {
+                evicted = slots[head];
+                head = (head + 1) % slots.length;
+                size--;
+            }
+            slots[(head + size) % slots.length] = m;
+            size++;
+            return evicted;
+        }
+
+        boolean hasKey(String key) {
+            for (int i = 0; i < size; i++) {
+                if (key.equals(slots[(head + i) % slots.length].coalesceKey)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Drop buffered messages with this key, keeping the order of the rest
+        int removeKey(String key) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                Message m = slots[(head + i) % slots.length];
+                if (!key.equals(m.coalesceKey)) {
+                    slots[(head + kept) % slots.length] = m;
+                    kept++;
+                }
+            }
+            for (int i = kept; i < size; i++) {
+                slots[(head + i) % slots.length] = null;
+            }
+            int removed = size - kept;
+            size = kept;
+            return removed;
+        }
+
+        List<Message> drain() {
+            List<Message> out = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int idx = (head + i) % slots.length;
+                out.add(slots[idx]);
+                slots[idx] = null;
+            }
+            head = 0;
+            size = 0;
+            return out;
+        }
+    }
+
+    /**
+     * Buffer a message for an offline session.
+     *
+     * @return the oldest buffered message if the ring overflowed (the caller
+     *         spills it to the database), otherwise null
+     */
+    public Message offer(String sessionId, String type, String data, String coalesceKey) {
+        return add(new Message(sessionId, type, data, coalesceKey), true);
+    }
+
+    // newest=false for messages put back after a failed drain: anything
+    // buffered since then is newer, so the put-back one loses
+    private Message add(Message message, boolean newest) {
+        int capacity = ServerConfig.getInstance().get(ServerConfig.NOTIFIER_OUTBOX_CAPACITY);
+        String key = message.coalesceKey;
+        Message[] spilled = new Message[1];
+        rings.compute(message.sessionId, (k, ring) -> {
+            if (ring == null) {
+                ring = new Ring(capacity);
+            } else if (key != null && newest) {
+                compacted.addAndGet(ring.removeKey(key));
+            } else if (key != null && ring.hasKey(key)) {
+                compacted.incrementAndGet();
+                return ring;
+            }
+            spilled[0] = ring.add(message);
+            return ring;
+        });
+        Message evicted = spilled[0];
+        enqueued.incrementAndGet();
+        if (evicted != null) {
+            spilledOverflow.incrementAndGet();
+        }
+        return evicted;
+    }
+
+    /**
+     * Take everything buffered for a session, oldest first, dropping
+     * messages that outlived the TTL.
+     */
+    public List<Message> drain(String sessionId) {
+        Ring ring = rings.remove(sessionId);
+        if (ring == null) {
+            return List.of();
+        }
+        List<Message> messages = ring.drain();
+        long cutoff = System.currentTimeMillis() - ttlMillis();
+        int before = messages.size();
+        messages.removeIf(m -> m.createdAt < cutoff);
+        expired.addAndGet(before - messages.size());
+        return messages;
+    }
+
+    /**
+     * Put back messages that could not be delivered after a drain (socket
+     * closed mid-way). Spilled overflow is returned like {@link #offer}.
+     */
+    public List<Message> requeue(List<Message> messages) {
+        List<Message> spilled = new ArrayList<>();
+        for (Message m : messages) {
+            Message evicted = add(m, false);
+            enqueued.decrementAndGet();
+            if (evicted != null) {
+                spilled.add(evicted);
+            }
+        }
+        return spilled;
+    }
+
+    public void recordDelivered(int count) {
+        deliveredFromMemory.addAndGet(count);
+    }
+
+    /**
+     * Drop expired messages and rings that became empty. Run periodically.
+     */
+    public void expire() {
+        long cutoff = System.currentTimeMillis() - ttlMillis();
+        for (String sessionId : rings.keySet()) {
+            rings.computeIfPresent(sessionId, (k, ring) -> {
+                List<Message> kept = ring.drain();
+                int before = kept.size();
+                kept.removeIf(m -> m.createdAt < cutoff);
+                expired.addAndGet(before - kept.size());
+                kept.forEach(ring::add);
+                return ring.size == 0 ? null : ring;
+            });
+        }
+    }
+
+    /**
+     * Remove and return every buffered message, for spilling on shutdown.
+     */
+    public List<Message> drainAll() {
+        List<Message> all = new ArrayList<>();
+        for (String sessionId : rings.keySet()) {
+            all.addAll(drain(sessionId));
+        }
+        spilledShutdown.addAndGet(all.size());
+        return all;
+    }
+
+    public boolean hasMessages(String sessionId) {
+        return rings.containsKey(sessionId);
+    }
+
+    private static long ttlMillis() {
+        return ServerConfig.getInstance().get(ServerConfig.NOTIFIER_OUTBOX_TTL_SECONDS) * 1000L;
+    }
+
+    public Map<String, Object> getStats() {
+        // Approximate: rings may change while we count
+        int buffered = 0;
+        for (Ring ring : rings.values()) {
+            buffered += ring.size;
+        }
+        long hits = deliveredFromMemory.get();
+        long spills = spilledOverflow.get() + spilledShutdown.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessionsBuffered", rings.size());
+        stats.put("messagesBuffered", buffered);
+        stats.put("enqueued", enqueued.get());
+        stats.put("deliveredFromMemory", hits);
+        stats.put("spilledOnOverflow", spilledOverflow.get());
+        stats.put("spilledOnShutdown", spilledShutdown.get());
+        stats.put("expired", expired.get());
+        stats.put("compactedInMemory", compacted.get());
+        stats.put("memoryHitRate", hits + spills > 0 ? (double) hits / (hits + spills) : 1.0);
+        return stats;
+    }
+}
@@ -0,0 +1,108 @@
+package com.stanstate.ttt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * In-memory topic subscriptions: topic -> subscribed session ids.
+ *
+ * Topics are "match:&lt;id&gt;" (both seats, subscribed when the match is
+ * created or joined) and "lobby" (sessions browsing open matches).
+ * Subscriptions belong to the session, not the socket, so a player who
+ * reconnects is still subscribed to their match.
+ */
+public class TopicRegistry {
+    public static final String LOBBY = "lobby";
+    private static final String MATCH_PREFIX = "match:";
+
+    private final ConcurrentHashMap<String, Set<String>> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+
+    public static String matchTopic(String matchId) {
+        return MATCH_PREFIX + matchId;
+    }
+
+    public void subscribe(String topic, String sessionId) {
+        if (sessionId == null) {
+            return;
+        }
+        subscribers.computeIfAbsent(topic, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+    }
+
+    public void unsubscribe(String topic, String sessionId) {
+        subscribers.computeIfPresent(topic, (k, sessions) -> {
+            sessions.remove(sessionId);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    public boolean isSubscribed(String topic, String sessionId) {
+        Set<String> sessions = subscribers.get(topic);
+        return sessions != null && sessions.contains(sessionId);
+    }
+
+    /**
+     * Current subscribers of a topic, counted as one publish.
+     */
+    public List<String> subscribersForPublish(String topic) {
+        Set<String> sessions = subscribers.get(topic);
+        published.incrementAndGet();
+        if (sessions == null) {
+            return Collections.emptyList();
+        }
+        List<String> snapshot = new ArrayList<>(sessions);
+        deliveries.addAndGet(snapshot.size());
+        return snapshot;
+    }
+
+    /**
+     * Drop a topic and all its subscriptions (match finished or gone).
+     */
+    public void removeTopic(String topic) {
+        subscribers.remove(topic);
+    }
+
+    /**
+     * Drop every match topic whose match no longer exists.
+     */
+    public int removeStaleMatches(Predicate<String> matchExists) {
+        int removed = 0;
+        for (String topic : new ArrayList<>(subscribers.keySet())) {
+            if (topic.startsWith(MATCH_PREFIX) && !matchExists.test(topic.substring(MATCH_PREFIX.length()))) {
+                removeTopic(topic);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public Map<String, Object> getStats() {
+        int matchTopics = 0;
+        int subscriptions = 0;
+        for (Map.Entry<String, Set<String>> e : subscribers.entrySet()) {
+            if (e.getKey().startsWith(MATCH_PREFIX)) {
+                matchTopics++;
+            }
+            subscriptions += e.getValue().size();
+        }
+        Set<String> lobby = subscribers.get(LOBBY);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("topics", subscribers.size());
+        stats.put("matchTopics", matchTopics);
+        stats.put("lobbySubscribers", lobby != null ? lobby.size() : 0);
+        stats.put("subscriptions", subscriptions);
+        stats.put("published", published.get());
+        stats.put("deliveries", deliveries.get());
+        return stats;
+    }
+}
@@ -1,5 +1,7 @@
 package com.stanstate.ttt;
 import com.google.gson.JsonObject;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -67,12 +69,13 @@ public class TttRoom extends Room {
   }
   private void scheduleTimer(){ 
     cancelTimer(); 
-    System.out.println("TIMER: Scheduling 120-second forfeit timer for match " + id + ", current turn: " + (xTurn ? "X" : "O"));
+    int timeout = ServerConfig.getInstance().get(ServerConfig.GAME_TURN_TIMEOUT_SECONDS);
+    System.out.println("TIMER: Scheduling " + timeout + "-second forfeit timer for match " + id + ", current turn: " + (xTurn ? "X" : "O"));
     timer=sched.schedule(() -> {
-      System.out.println("TIMER EXPIRED: 120 seconds elapsed for match " + id + ", declaring forfeit for " + (xTurn ? "X" : "O"));
+      System.out.println("TIMER EXPIRED: " + timeout + " seconds elapsed for match " + id + ", declaring forfeit for " + (xTurn ? "X" : "O"));
       String winner = xTurn?"O":"X"; 
       broadcastOver("forfeit:"+winner);
-    }, 120, TimeUnit.SECONDS); 
+    }, timeout, TimeUnit.SECONDS); 
   }
   private void cancelTimer(){ 
     if (timer!=null) {
@@ -83,12 +86,13 @@ public class TttRoom extends Room {
   private void broadcastState(String res){
     var st=new JsonObject(); st.addProperty("t","state"); st.addProperty("match",id);
     st.addProperty("board", boardString()); st.addProperty("next", xTurn?"X":"O"); st.addProperty("result",res);
-    p1.send(st); p2.send(st);
+    broadcast(st, recipients());
   }
   private void broadcastOver(String res){
     var over=new JsonObject(); over.addProperty("t","over"); over.addProperty("match",id); over.addProperty("result",res);
-    p1.send(over); p2.send(over);
+    broadcast(over, recipients());
   }
+  private List<ClientSession> recipients(){ return Arrays.asList(p1, p2); }
   private String boardString(){
     StringBuilder sb=new StringBuilder(9);
     for (int i=8;i>=0;i--){
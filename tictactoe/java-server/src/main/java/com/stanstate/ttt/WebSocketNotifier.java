@@ -1,52 +1,142 @@
 package com.stanstate.ttt;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import org.java_websocket.WebSocket;
+import java.nio.ByteBuffer;
 import java.sql.*;
+import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.ArrayList;
 
 public class WebSocketNotifier {
+    private static WebSocketNotifier instance;
+    
     private final DatabaseManager dbManager;
     private final Map<String, WebSocket> sessionConnections;
-    private final ScheduledExecutorService retryScheduler;
+    // Shared maintenance scheduler; the heartbeat scheduler is ours alone
+    private final ScheduledExecutorService outboxScheduler;
+    // Every pending_notifications write and the drains that must see them run
+    // here, one at a time, so a session's inserts, supersede deletes and
+    // discards land in order and never on a socket or game thread
+    private final ExecutorService spillWriter;
+    private static final int SPILL_QUEUE_CAPACITY = 4096;
+    private volatile boolean stopped;
+    // Per-session timers for pending_notifications rows awaiting a retry
+    private final RetryScheduler pendingRetries;
     private final ScheduledExecutorService heartbeatScheduler;
+    private final HeartbeatSweeper heartbeats;
+    // Undelivered messages wait here first; only overflow and shutdown hit the DB
+    private final SessionOutbox outbox = new SessionOutbox();
+    // Per-session seq numbers and the recent messages a reconnect can resume from
+    private final ReplayLog replayLog = new ReplayLog();
+    // match:<id> and lobby subscriptions; recipients never come from SQL
+    private final TopicRegistry topics = new TopicRegistry();
+    // Sessions that may have rows in pending_notifications, so a reconnect
+    // only queries the table when there is something to read
+    private final java.util.Set<String> sessionsWithSpill = ConcurrentHashMap.newKeySet();
+    // Callbacks fired once a session's socket is gone (lobby cleanup etc.)
+    private final List<Consumer<String>> disconnectListeners = new CopyOnWriteArrayList<>();
     
-    public WebSocketNotifier() {
-        this.dbManager = DatabaseManager.getInstance();
-        this.sessionConnections = new ConcurrentHashMap<>();
-        this.retryScheduler = Executors.newScheduledThreadPool(2);
-        this.heartbeatScheduler = Executors.newScheduledThreadPool(1);
-        
-        // Start retry and heartbeat tasks
-        startRetryTask();
-        startHeartbeatTask();
+    // Session registry statistics
+    private final AtomicLong totalRegistered = new AtomicLong();
+    private final AtomicLong totalUnregistered = new AtomicLong();
+    private final AtomicLong totalReplaced = new AtomicLong();
+    // pending_notifications rows deleted because a newer message replaced them
+    private final AtomicLong compactedRows = new AtomicLong();
+    
+    /**
+     * The notifier shared by the WebSocket server, the game service and the
+     * REST API. Every instance owns a retry thread, heartbeat sweeps and a
+     * replay log, so there should be exactly one.
+     */
+    public static synchronized WebSocketNotifier getInstance() {
+        if (instance == null) {
+            instance = new WebSocketNotifier();
+        }
+        return instance;
+    }
+    
+    private WebSocketNotifier() {
+        this(DatabaseManager.getInstance());
     }
     
-    public WebSocketNotifier(DatabaseManager dbManager) {
+    // Tests may pass their own DatabaseManager; everything else uses getInstance()
+    WebSocketNotifier(DatabaseManager dbManager) {
         this.dbManager = dbManager;
         this.sessionConnections = new ConcurrentHashMap<>();
-        this.retryScheduler = Executors.newScheduledThreadPool(2);
-        this.heartbeatScheduler = Executors.newScheduledThreadPool(1);
+        ExecutorRegistry registry = ExecutorRegistry.getInstance();
+        this.outboxScheduler = registry.maintenance();
+        this.heartbeatScheduler = registry.scheduled("ws-heartbeat", 1, ExecutorRegistry.Phase.NETWORK);
+        this.spillWriter = registry.fixed("notifier-spill", 1, SPILL_QUEUE_CAPACITY, ExecutorRegistry.Phase.PERSISTENCE);
+        this.heartbeats = new HeartbeatSweeper(heartbeatScheduler, sessionConnections::get);
+        this.pendingRetries = new RetryScheduler("NotificationRetry", this::retryPendingNotifications);
+        registry.onShutdown(ExecutorRegistry.Phase.NETWORK, "WebSocketNotifier", this::shutdown);
+        loadSpilledSessions();
         
-        startRetryTask();
+        startOutboxExpiryTask();
         startHeartbeatTask();
     }
     
     public void registerConnection(String sessionId, WebSocket connection) {
-        sessionConnections.put(sessionId, connection);
+        registerConnection(sessionId, connection, null);
+    }
+    
+    /**
+     * @param lastSeq last seq the client received before reconnecting, or
+     *                null for a client that does not track seqs
+     */
+    public void registerConnection(String sessionId, WebSocket connection, Long lastSeq) {
+        // Bind the session to the socket so close/error can find it in O(1)
+        ConnectionContext ctx = ConnectionContext.of(connection);
+        // Binary frames carry no seq; this is where a binary client's stream
+        // starts, read before the socket can be sent anything newer
+        Long streamSeq = ctx.isBinary() ? replayLog.lastSeq(sessionId) : null;
+        String previousSession = ctx.getSessionId();
+        if (previousSession != null && !previousSession.equals(sessionId)) {
+            // Same socket re-registering under a new session id
+            if (sessionConnections.remove(previousSession, connection)) {
+                totalUnregistered.incrementAndGet();
+            }
+        }
+        ctx.bind(sessionId);
+        
+        WebSocket previous = sessionConnections.put(sessionId, connection);
+        if (previous == null) {
+            totalRegistered.incrementAndGet();
+        } else if (previous != connection) {
+            // Session reconnected on a new socket; the old one no longer owns it
+            totalReplaced.incrementAndGet();
+            ConnectionContext oldCtx = previous.getAttachment();
+            if (oldCtx != null && sessionId.equals(oldCtx.getSessionId())) {
+                oldCtx.unbind();
+            }
+        }
         System.out.println("Registered WebSocket for session: " + sessionId);
+        LivenessTracker.getInstance().track(sessionId);
+        heartbeats.add(sessionId);
         
-        // Update connection status in database
-        dbManager.updateHeartbeat(sessionId);
+        // Connection status reaches player_sessions on the next activity flush
+        ActivityRecorder.getInstance().record(sessionId);
         
-        // Send any pending messages that were waiting for this connection
-        sendPendingMessages(sessionId);
+        // Send what the client missed while it was away
+        if (lastSeq != null) {
+            resume(sessionId, connection, lastSeq);
+        } else {
+            deliverBacklog(sessionId, connection);
+        }
         
         // Send connection confirmation
         try {
@@ -54,71 +144,481 @@ public class WebSocketNotifier {
             confirmMessage.addProperty("t", "connection_confirmed");
             confirmMessage.addProperty("sessionId", sessionId);
             confirmMessage.addProperty("timestamp", System.currentTimeMillis());
-            connection.send(confirmMessage.toString());
+            if (streamSeq != null) {
+                confirmMessage.addProperty("lastSeq", streamSeq);
+            }
+            String confirm = confirmMessage.toString();
+            OutboundBackpressure.sendBackground(connection, () -> connection.send(confirm));
         } catch (Exception e) {
             System.err.println("Failed to send connection confirmation: " + e.getMessage());
         }
     }
     
+    /**
+     * Unregister whatever session is bound to this socket.
+     * Returns the session id that was released, or null if the socket never
+     * registered or was already superseded by a newer socket.
+     */
+    public String unregisterConnection(WebSocket connection) {
+        // Background frames still queued for this socket are held instead;
+        // this also covers a socket already superseded by a newer one
+        OutboundBackpressure.abandon(connection);
+        String sessionId = ConnectionContext.sessionOf(connection);
+        if (sessionId == null) {
+            return null;
+        }
+        ((ConnectionContext) connection.getAttachment()).unbind();
+        
+        // Only remove the mapping if this socket still owns the session
+        if (!sessionConnections.remove(sessionId, connection)) {
+            return null;
+        }
+        onSessionDisconnected(sessionId);
+        return sessionId;
+    }
+    
     public void unregisterConnection(String sessionId) {
-        sessionConnections.remove(sessionId);
+        WebSocket connection = sessionConnections.remove(sessionId);
+        if (connection == null) {
+            return;
+        }
+        ConnectionContext ctx = connection.getAttachment();
+        if (ctx != null) {
+            ctx.unbind();
+        }
+        // No longer swept, so nothing queued on it would ever be released
+        OutboundBackpressure.abandon(connection);
+        onSessionDisconnected(sessionId);
+    }
+    
+    private void onSessionDisconnected(String sessionId) {
+        totalUnregistered.incrementAndGet();
         System.out.println("Unregistered WebSocket for session: " + sessionId);
         
-        // Update connection status in database
-        try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "UPDATE player_sessions SET connection_status = 'disconnected' WHERE session_id = ?"
-            );
-            stmt.setString(1, sessionId);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Failed to update disconnection status: " + e.getMessage());
+        // Release in-memory session state and any lobby slot it was holding
+        GameStateCache.GameState dropped = GameStateCache.getInstance().markSessionDisconnected(sessionId);
+        if (dropped != null) {
+            topics.removeTopic(TopicRegistry.matchTopic(dropped.matchId));
+            notifyLobbyRemoved(dropped.matchId);
         }
+        // Lobby deltas are live-only; a reconnecting client subscribes again
+        topics.unsubscribe(TopicRegistry.LOBBY, sessionId);
+        LivenessTracker.getInstance().untrack(sessionId);
+        heartbeats.remove(sessionId);
+        // Queues the 'disconnected' status for the next activity flush
+        ActivityRecorder.getInstance().disconnected(sessionId);
+        for (Consumer<String> listener : disconnectListeners) {
+            try {
+                listener.accept(sessionId);
+            } catch (Exception e) {
+                System.err.println("Disconnect listener failed for " + sessionId + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    public void addDisconnectListener(Consumer<String> listener) {
+        disconnectListeners.add(listener);
     }
     
     // Enhanced message sending with retry logic and redundancy
     public void sendToSession(String sessionId, JsonObject message) {
+        sendToSession(sessionId, message, null);
+    }
+    
+    /**
+     * Send a message that also has a BinaryProtocol encoding. Sockets that
+     * negotiated the binary subprotocol get {@code binary}; everything else,
+     * including the pending store, uses the JSON form.
+     */
+    public void sendToSession(String sessionId, JsonObject message, ByteBuffer binary) {
         WebSocket connection = sessionConnections.get(sessionId);
+        String type = message.get("t").getAsString();
+        if (!isSequenced(type)) {
+            sendUnsequenced(sessionId, connection, type, message.toString());
+            return;
+        }
+        String coalesceKey = OutboundBackpressure.coalesceKey(message);
+        replayLog.append(sessionId, message.toString(),
+            text -> deliver(sessionId, connection, type, text, binary, coalesceKey));
+    }
+    
+    /**
+     * Send the same message to several sessions; sessions without an open
+     * socket get it stored as pending. The message is serialized once.
+     * Gameplay messages are then stamped and framed per session, because
+     * each session's seq is its own and resume depends on it; they only go
+     * to the seats of a match, so that is at most two framings. Background
+     * messages carry no seq and are framed once for everyone (Broadcaster).
+     */
+    public void sendToSessions(List<String> sessionIds, JsonObject message) {
+        sendToSessions(sessionIds, message, null);
+    }
+    
+    /**
+     * Like {@link #sendToSessions(List, JsonObject)}, but binary-protocol
+     * sockets get {@code binary} instead of the JSON text. Binary frames carry
+     * no seq, so they are still framed once and shared.
+     */
+    public void sendToSessions(List<String> sessionIds, JsonObject message, ByteBuffer binary) {
+        String messageStr = message.toString();
+        String type = message.get("t").getAsString();
+        if (!isSequenced(type)) {
+            broadcastUnsequenced(sessionIds, type, messageStr);
+            return;
+        }
+        String coalesceKey = OutboundBackpressure.coalesceKey(message);
+        List<WebSocket> binaryRecipients = new ArrayList<>(0);
+        ActivityRecorder activity = ActivityRecorder.getInstance();
+        for (String sessionId : sessionIds) {
+            if (sessionId == null) {
+                continue;
+            }
+            WebSocket connection = sessionConnections.get(sessionId);
+            if (binary != null && connection != null && connection.isOpen() && ConnectionContext.isBinary(connection)) {
+                // Logged for resume; the shared binary frame goes out below
+                replayLog.append(sessionId, messageStr, text -> {});
+                binaryRecipients.add(connection);
+                activity.record(sessionId);
+            } else {
+                replayLog.append(sessionId, messageStr,
+                    text -> deliver(sessionId, connection, type, text, null, coalesceKey));
+            }
+        }
         
+        if (!binaryRecipients.isEmpty()) {
+            Broadcaster.broadcast(binary, binaryRecipients, coalesceKey);
+            System.out.println("Broadcast binary " + type + " to " + binaryRecipients.size() + " sessions");
+        }
+    }
+    
+    /**
+     * Only gameplay frames are sequenced. Background frames wait for tokens,
+     * so a gameplay frame sent later can reach the socket first; with a seq
+     * the client's lastSeq would then move past a frame that is still
+     * queued, and a drop at that point would lose it on resume.
+     */
+    private static boolean isSequenced(String type) {
+        return OutboundBackpressure.priorityOf(type) == OutboundBackpressure.Priority.GAMEPLAY;
+    }
+    
+    // Background lane without a seq; held for the session if the socket
+    // closes before the frame leaves the queue
+    private void sendUnsequenced(String sessionId, WebSocket connection, String type, String text) {
+        if (connection != null && connection.isOpen()) {
+            try {
+                OutboundBackpressure.sendBackground(connection, () -> connection.send(text),
+                    () -> holdForSession(sessionId, type, text, null));
+                System.out.println("Sent message to " + sessionId + ": " + text);
+                ActivityRecorder.getInstance().record(sessionId);
+                return;
+            } catch (Exception e) {
+                System.err.println("Failed to send message to " + sessionId + ": " + e.getMessage());
+            }
+        } else {
+            System.out.println("No active connection for " + sessionId + ", storing as pending");
+        }
+        holdForSession(sessionId, type, text, null);
+    }
+    
+    private void broadcastUnsequenced(List<String> sessionIds, String type, String text) {
+        Map<WebSocket, String> online = new LinkedHashMap<>();
+        ActivityRecorder activity = ActivityRecorder.getInstance();
+        for (String sessionId : sessionIds) {
+            if (sessionId == null) {
+                continue;
+            }
+            WebSocket connection = sessionConnections.get(sessionId);
+            if (connection != null && connection.isOpen()) {
+                online.put(connection, sessionId);
+                activity.record(sessionId);
+            } else {
+                holdForSession(sessionId, type, text, null);
+            }
+        }
+        if (!online.isEmpty()) {
+            Broadcaster.broadcastBackground(text, online.keySet(),
+                connection -> holdForSession(online.get(connection), type, text, null));
+            System.out.println("Broadcast " + type + " to " + online.size() + " sessions");
+        }
+    }
+    
+    // Runs under the session's ReplayLog lock, so sends leave in seq order
+    private void deliver(String sessionId, WebSocket connection, String type, String text,
+                         ByteBuffer binary, String coalesceKey) {
         if (connection != null && connection.isOpen()) {
             try {
-                String messageStr = message.toString();
-                connection.send(messageStr);
-                System.out.println("Sent message to " + sessionId + ": " + messageStr);
+                if (binary != null && ConnectionContext.isBinary(connection)) {
+                    OutboundBackpressure.send(connection, type, coalesceKey, () -> connection.send(binary.duplicate()));
+                    System.out.println("Sent binary " + type + " to " + sessionId);
+                } else {
+                    OutboundBackpressure.send(connection, type, coalesceKey, () -> connection.send(text));
+                    System.out.println("Sent message to " + sessionId + ": " + text);
+                }
                 
                 // Update last successful communication
-                dbManager.updateHeartbeat(sessionId);
-                
+                ActivityRecorder.getInstance().record(sessionId);
+                return;
             } catch (Exception e) {
                 System.err.println("Failed to send message to " + sessionId + ": " + e.getMessage());
-                // Store as pending for retry
-                storePendingNotification(sessionId, message.get("t").getAsString(), message.toString());
             }
         } else {
             System.out.println("No active connection for " + sessionId + ", storing as pending");
-            // Store message for when connection returns
-            storePendingNotification(sessionId, message.get("t").getAsString(), message.toString());
         }
+        // Store message for retry / when the connection returns
+        holdForSession(sessionId, type, text, coalesceKey);
     }
     
-    // Store notification in database for retry/redundancy
+    /**
+     * Hold a message for a session that is not connected. A gameplay message
+     * gets the session's next seq like any other; background ones carry none.
+     */
     public void storePendingNotification(String sessionId, String type, String data) {
+        if (!isSequenced(type)) {
+            holdForSession(sessionId, type, data, null);
+            return;
+        }
+        String coalesceKey = OutboundBackpressure.coalesceKey(type, data);
+        replayLog.append(sessionId, data, text -> holdForSession(sessionId, type, text, coalesceKey));
+    }
+    
+    /**
+     * Buffer a stamped message in memory; only the oldest message of a full
+     * outbox is written to pending_notifications. A message with a coalescing
+     * key replaces older undelivered ones with the same key, in memory and in
+     * the table.
+     */
+    private void holdForSession(String sessionId, String type, String data, String coalesceKey) {
+        SessionOutbox.Message spilled = outbox.offer(sessionId, type, data, coalesceKey);
+        if (spilled != null) {
+            spillToDatabase(spilled);
+        }
+        if (coalesceKey != null && sessionsWithSpill.contains(sessionId)) {
+            spillWriter.execute(() -> {
+                try (Connection conn = dbManager.getConnection()) {
+                    deleteSuperseded(conn, sessionId, coalesceKey);
+                } catch (SQLException e) {
+                    System.err.println("Failed to compact pending notifications: " + e.getMessage());
+                }
+            });
+        }
+        System.out.println("Buffered pending notification for " + sessionId + " type: " + type);
+        
+        // The session may have registered between the caller's check and now
+        WebSocket connection = sessionConnections.get(sessionId);
+        if (connection != null && connection.isOpen()) {
+            deliverBacklog(sessionId, connection);
+        }
+    }
+    
+    /**
+     * Reconnect from a known seq: resend only what the client missed, or a
+     * snapshot of its match if the replay log no longer covers that seq. The
+     * held copies of sequenced messages are dropped, since the log has them;
+     * unsequenced background messages held while the session was away are
+     * only in the backlog, so they are delivered after the replay.
+     */
+    private void resume(String sessionId, WebSocket connection, long lastSeq) {
+        discardSequenced(sessionId);
+        try {
+            // Logged frames are all gameplay; they go out in seq order
+            if (replayLog.replay(sessionId, lastSeq, text -> sendLogged(connection, text))) {
+                System.out.println("Resumed " + sessionId + " after seq " + lastSeq);
+            } else {
+                sendSnapshot(sessionId);
+            }
+        } catch (Exception e) {
+            // The log keeps everything; the client resumes again on its next connect
+            System.err.println("Failed to resume " + sessionId + ": " + e.getMessage());
+            return;
+        }
+        deliverBacklog(sessionId, connection);
+    }
+    
+    private void discardSequenced(String sessionId) {
+        List<SessionOutbox.Message> unsequenced = new ArrayList<>();
+        for (SessionOutbox.Message message : outbox.drain(sessionId)) {
+            if (!isSequenced(message.type)) {
+                unsequenced.add(message);
+            }
+        }
+        for (SessionOutbox.Message spilled : outbox.requeue(unsequenced)) {
+            spillToDatabase(spilled);
+        }
+        pendingRetries.cancel(sessionId);
+        if (!sessionsWithSpill.contains(sessionId)) {
+            return;
+        }
+        // The session stays flagged; deliverBacklog sends the unsequenced rows.
+        // Queued behind any spill still in flight, so none of its rows escape
+        spillWriter.execute(() -> discardSpilledSequenced(sessionId));
+    }
+    
+    private void discardSpilledSequenced(String sessionId) {
+        Set<String> sequencedTypes = OutboundBackpressure.gameplayTypes();
         try (Connection conn = dbManager.getConnection()) {
-            // H2 uses CURRENT_TIMESTAMP instead of datetime()
             PreparedStatement stmt = conn.prepareStatement(
-                "INSERT INTO pending_notifications (session_id, notification_type, data, attempts, next_retry) " +
-                "VALUES (?, ?, ?, 0, CURRENT_TIMESTAMP + INTERVAL '5' SECOND)"
+                "UPDATE pending_notifications SET delivered = TRUE WHERE session_id = ? AND delivered = FALSE " +
+                "AND notification_type IN (" + String.join(", ", Collections.nCopies(sequencedTypes.size(), "?")) + ")"
             );
             stmt.setString(1, sessionId);
-            stmt.setString(2, type);
-            stmt.setString(3, data);
+            int i = 2;
+            for (String type : sequencedTypes) {
+                stmt.setString(i++, type);
+            }
             stmt.executeUpdate();
-            System.out.println("Stored pending notification for " + sessionId + " type: " + type);
+        } catch (SQLException e) {
+            System.err.println("Failed to discard pending messages for " + sessionId + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Full state for a client whose missed messages are gone: its current
+     * match (if any) in one frame. Sequenced like everything else, so the
+     * client continues from the snapshot's seq.
+     */
+    private void sendSnapshot(String sessionId) {
+        JsonObject snapshot = new JsonObject();
+        snapshot.addProperty("t", "snapshot");
+        GameStateCache.GameState game = GameStateCache.getInstance().getGameBySessionId(sessionId);
+        if (game != null) {
+            boolean first = sessionId.equals(game.sessionId1);
+            snapshot.addProperty("match", game.matchId);
+            snapshot.addProperty("seat", first ? 1 : 2);
+            snapshot.addProperty("opponentName", first ? game.player2Name : game.player1Name);
+            long state = game.state();
+            snapshot.addProperty("board", GameStateCache.GameState.boardOf(state));
+            snapshot.addProperty("next", GameStateCache.GameState.currentPlayerOf(state));
+            snapshot.addProperty("status", GameStateCache.GameState.statusNameOf(state));
+            snapshot.addProperty("result", GameStateCache.GameState.resultOf(state));
+            snapshot.addProperty("version", GameStateCache.GameState.versionOf(state));
+        }
+        sendToSession(sessionId, snapshot);
+        System.out.println("Sent snapshot to " + sessionId);
+    }
+    
+    /**
+     * Deliver what a session missed while offline: rows spilled to the
+     * database first (they are older), then the in-memory outbox. A session
+     * with spilled rows is drained on the spill writer, after its queued
+     * writes and off the caller's thread.
+     */
+    private void deliverBacklog(String sessionId, WebSocket connection) {
+        if (sessionsWithSpill.remove(sessionId)) {
+            spillWriter.execute(() -> {
+                sendPendingMessages(sessionId);
+                drainOutbox(sessionId, connection);
+            });
+            return;
+        }
+        drainOutbox(sessionId, connection);
+    }
+    
+    private void drainOutbox(String sessionId, WebSocket connection) {
+        if (!outbox.hasMessages(sessionId)) {
+            return;
+        }
+        List<SessionOutbox.Message> backlog = outbox.drain(sessionId);
+        int delivered = 0;
+        try {
+            for (SessionOutbox.Message message : backlog) {
+                if (!connection.isOpen()) {
+                    break;
+                }
+                sendHeld(sessionId, connection, message.type, message.data);
+                delivered++;
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to deliver buffered message to " + sessionId + ": " + e.getMessage());
+        }
+        outbox.recordDelivered(delivered);
+        if (delivered < backlog.size()) {
+            // Socket went away mid-drain; keep the rest for the next connection
+            for (SessionOutbox.Message spilled : outbox.requeue(backlog.subList(delivered, backlog.size()))) {
+                spillToDatabase(spilled);
+            }
+        }
+        if (delivered > 0) {
+            System.out.println("Delivered " + delivered + " buffered messages to " + sessionId);
+        }
+    }
+    
+    // Gameplay frames from the backlog go straight out, in seq order; its
+    // background chatter is rate-limited and held again if the socket closes
+    // before it leaves the queue
+    private void sendHeld(String sessionId, WebSocket connection, String type, String data) {
+        if (isSequenced(type)) {
+            sendLogged(connection, data);
+        } else {
+            OutboundBackpressure.sendBackground(connection, () -> connection.send(data),
+                () -> holdForSession(sessionId, type, data, null));
+        }
+    }
+    
+    // A replayed or held gameplay frame: binary sockets get the binary form
+    // when the frame has one (state, over, match), the JSON otherwise
+    private void sendLogged(WebSocket connection, String text) {
+        ByteBuffer binary = ConnectionContext.isBinary(connection) ? BinaryProtocol.fromJson(text) : null;
+        if (binary != null) {
+            OutboundBackpressure.send(connection, null, () -> connection.send(binary));
+        } else {
+            OutboundBackpressure.send(connection, null, () -> connection.send(text));
+        }
+    }
+    
+    private void loadSpilledSessions() {
+        try (Connection conn = dbManager.getConnection()) {
+            ResultSet rs = conn.createStatement().executeQuery(
+                "SELECT DISTINCT session_id FROM pending_notifications WHERE delivered = FALSE"
+            );
+            while (rs.next()) {
+                sessionsWithSpill.add(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to load pending notification sessions: " + e.getMessage());
+        }
+    }
+    
+    // Store notification in database for retry/redundancy (outbox overflow).
+    // The session is flagged now; the row is written by the spill writer.
+    private void spillToDatabase(SessionOutbox.Message message) {
+        sessionsWithSpill.add(message.sessionId);
+        spillWriter.execute(() -> writeSpilled(message));
+    }
+    
+    private void writeSpilled(SessionOutbox.Message message) {
+        try (Connection conn = dbManager.getConnection()) {
+            if (message.coalesceKey != null) {
+                deleteSuperseded(conn, message.sessionId, message.coalesceKey);
+            }
+            // H2 uses CURRENT_TIMESTAMP instead of datetime()
+            PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO pending_notifications (session_id, notification_type, data, coalesce_key, attempts, next_retry) " +
+                "VALUES (?, ?, ?, ?, 0, CURRENT_TIMESTAMP + INTERVAL '5' SECOND)"
+            );
+            stmt.setString(1, message.sessionId);
+            stmt.setString(2, message.type);
+            stmt.setString(3, message.data);
+            stmt.setString(4, message.coalesceKey);
+            stmt.executeUpdate();
+            System.out.println("Stored pending notification for " + message.sessionId + " type: " + message.type);
         } catch (SQLException e) {
             System.err.println("Failed to store pending notification: " + e.getMessage());
         }
     }
     
+    // Undelivered rows a newer message with the same key makes obsolete
+    private void deleteSuperseded(Connection conn, String sessionId, String coalesceKey) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(
+            "DELETE FROM pending_notifications WHERE session_id = ? AND coalesce_key = ? AND delivered = FALSE"
+        );
+        stmt.setString(1, sessionId);
+        stmt.setString(2, coalesceKey);
+        int removed = stmt.executeUpdate();
+        if (removed > 0) {
+            compactedRows.addAndGet(removed);
+        }
+    }
+    
     public void notifyWaiting(String sessionId) {
         JsonObject notification = new JsonObject();
         notification.addProperty("t", "waiting");
@@ -127,265 +627,511 @@ public class WebSocketNotifier {
     }
     
     public void notifyMatchStart(String matchId) {
-        try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT player1_session, player2_session FROM game_matches WHERE match_id = ?"
-            );
-            stmt.setString(1, matchId);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                String player1 = rs.getString("player1_session");
-                String player2 = rs.getString("player2_session");
-                
-                // Notify player 1 (X)
-                JsonObject p1Notification = new JsonObject();
-                p1Notification.addProperty("t", "match_start");
-                p1Notification.addProperty("match_id", matchId);
-                p1Notification.addProperty("your_mark", "X");
-                p1Notification.addProperty("opponent_mark", "O");
-                sendToSession(player1, p1Notification);
-                
-                // Notify player 2 (O)
-                JsonObject p2Notification = new JsonObject();
-                p2Notification.addProperty("t", "match_start");
-                p2Notification.addProperty("match_id", matchId);
-                p2Notification.addProperty("your_mark", "O");
-                p2Notification.addProperty("opponent_mark", "X");
-                sendToSession(player2, p2Notification);
-                
-                // Send initial game state
-                notifyGameState(matchId, ".........", "X", "ongoing");
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        // Seats come from the cache; the match topic carries the shared state
+        GameStateCache.GameState game = GameStateCache.getInstance().getGame(matchId);
+        if (game == null) {
+            return;
         }
+        String topic = TopicRegistry.matchTopic(matchId);
+        topics.subscribe(topic, game.sessionId1);
+        topics.subscribe(topic, game.sessionId2);
+        
+        // Notify player 1 (X)
+        JsonObject p1Notification = new JsonObject();
+        p1Notification.addProperty("t", "match_start");
+        p1Notification.addProperty("match_id", matchId);
+        p1Notification.addProperty("your_mark", "X");
+        p1Notification.addProperty("opponent_mark", "O");
+        sendToSession(game.sessionId1, p1Notification);
+        
+        // Notify player 2 (O)
+        JsonObject p2Notification = new JsonObject();
+        p2Notification.addProperty("t", "match_start");
+        p2Notification.addProperty("match_id", matchId);
+        p2Notification.addProperty("your_mark", "O");
+        p2Notification.addProperty("opponent_mark", "X");
+        sendToSession(game.sessionId2, p2Notification);
+        
+        // Send initial game state
+        notifyGameState(matchId, ".........", "X", "ongoing");
     }
     
     public void notifyGameState(String matchId, String board, String nextTurn, String status) {
-        try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT player1_session, player2_session FROM game_matches WHERE match_id = ?"
-            );
-            stmt.setString(1, matchId);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                String player1 = rs.getString("player1_session");
-                String player2 = rs.getString("player2_session");
-                
-                JsonObject stateNotification = new JsonObject();
-                if (status.equals("ongoing")) {
-                    stateNotification.addProperty("t", "game_state");
-                    stateNotification.addProperty("board", board);
-                    stateNotification.addProperty("current_turn", nextTurn);
-                    stateNotification.addProperty("status", "ongoing");
-                } else {
-                    stateNotification.addProperty("t", "game_over");
-                    stateNotification.addProperty("board", board);
-                    stateNotification.addProperty("status", status);
-                }
-                
-                sendToSession(player1, stateNotification);
-                sendToSession(player2, stateNotification);
+        JsonObject stateNotification = new JsonObject();
+        if (status.equals("ongoing")) {
+            stateNotification.addProperty("t", "game_state");
+            stateNotification.addProperty("board", board);
+            stateNotification.addProperty("current_turn", nextTurn);
+            stateNotification.addProperty("status", "ongoing");
+        } else {
+            stateNotification.addProperty("t", "game_over");
+            stateNotification.addProperty("board", board);
+            stateNotification.addProperty("status", status);
+        }
+        
+        publish(TopicRegistry.matchTopic(matchId), stateNotification);
+    }
+    
+    /**
+     * Push the cached state of a match to its topic (both seats).
+     */
+    public void notifyMatchState(GameStateCache.GameState game) {
+        // One read of the packed state so every field is from the same version
+        long packed = game.state();
+        boolean finished = GameStateCache.GameState.statusOf(packed) == GameStateCache.GameState.FINISHED;
+        JsonObject state = new JsonObject();
+        if (finished) {
+            state.addProperty("t", "over");
+            state.addProperty("match", game.matchId);
+            state.addProperty("board", GameStateCache.GameState.boardOf(packed));
+            state.addProperty("result", GameStateCache.GameState.resultOf(packed));
+        } else {
+            state.addProperty("t", "state");
+            state.addProperty("match", game.matchId);
+            state.addProperty("board", GameStateCache.GameState.boardOf(packed));
+            state.addProperty("next", GameStateCache.GameState.currentPlayerOf(packed));
+            state.addProperty("status", GameStateCache.GameState.statusNameOf(packed));
+            state.addProperty("result", GameStateCache.GameState.resultOf(packed));
+        }
+        state.addProperty("version", GameStateCache.GameState.versionOf(packed));
+        
+        // The binary frame is built straight from the masks and codes
+        ByteBuffer binary = BinaryProtocol.encodeState(game.handle,
+            GameStateCache.GameState.xMaskOf(packed), GameStateCache.GameState.oMaskOf(packed),
+            !GameStateCache.GameState.xToMoveOf(packed), GameStateCache.GameState.statusOf(packed),
+            GameStateCache.GameState.outcomeOf(packed));
+        String topic = TopicRegistry.matchTopic(game.matchId);
+        publish(topic, state, binary);
+        if (finished) {
+            topics.removeTopic(topic);
+        }
+    }
+    
+    /**
+     * Tell each seat which match it is in and which mark it plays.
+     */
+    public void notifyMatchJoined(GameStateCache.GameState game) {
+        String topic = TopicRegistry.matchTopic(game.matchId);
+        topics.subscribe(topic, game.sessionId1);
+        topics.subscribe(topic, game.sessionId2);
+        
+        JsonObject p1Message = new JsonObject();
+        p1Message.addProperty("t", "match");
+        p1Message.addProperty("match", game.matchId);
+        p1Message.addProperty("seat", 1);
+        p1Message.addProperty("opponentName", game.player2Name);
+        sendToSession(game.sessionId1, p1Message, BinaryProtocol.encodeMatch(game.handle, 1, game.matchId));
+        
+        JsonObject p2Message = new JsonObject();
+        p2Message.addProperty("t", "match");
+        p2Message.addProperty("match", game.matchId);
+        p2Message.addProperty("seat", 2);
+        p2Message.addProperty("opponentName", game.player1Name);
+        sendToSession(game.sessionId2, p2Message, BinaryProtocol.encodeMatch(game.handle, 2, game.matchId));
+        
+        notifyMatchState(game);
+    }
+    
+    /**
+     * Send to every session subscribed to a topic. Like sendToSessions, each
+     * gets its own seq and offline subscribers get it held.
+     */
+    public void publish(String topic, JsonObject message) {
+        publish(topic, message, null);
+    }
+    
+    public void publish(String topic, JsonObject message, ByteBuffer binary) {
+        sendToSessions(topics.subscribersForPublish(topic), message, binary);
+    }
+    
+    public void subscribe(String topic, String sessionId) {
+        topics.subscribe(topic, sessionId);
+    }
+    
+    public void unsubscribe(String topic, String sessionId) {
+        topics.unsubscribe(topic, sessionId);
+    }
+    
+    /**
+     * Subscribe a session to lobby deltas and send it the current list of
+     * open matches ({"t":"lobby","matches":[...]}) to apply them to.
+     */
+    public void subscribeLobby(String sessionId) {
+        topics.subscribe(TopicRegistry.LOBBY, sessionId);
+        JsonArray matches = new JsonArray();
+        for (GameStateCache.GameState game : GameStateCache.getInstance().getWaitingGames()) {
+            matches.add(GameService.lobbyEntry(game));
+        }
+        JsonObject message = new JsonObject();
+        message.addProperty("t", "lobby");
+        message.add("matches", matches);
+        publishLive(Collections.singletonList(sessionId), message);
+    }
+    
+    // {"t":"lobby_delta","op":"created","match":{...}}
+    public void notifyLobbyCreated(GameStateCache.GameState game) {
+        JsonObject delta = new JsonObject();
+        delta.addProperty("t", "lobby_delta");
+        delta.addProperty("op", "created");
+        delta.add("match", GameService.lobbyEntry(game));
+        publishLive(topics.subscribersForPublish(TopicRegistry.LOBBY), delta);
+    }
+    
+    // {"t":"lobby_delta","op":"removed","matchId":"..."}: joined, or host left
+    public void notifyLobbyRemoved(String matchId) {
+        JsonObject delta = new JsonObject();
+        delta.addProperty("t", "lobby_delta");
+        delta.addProperty("op", "removed");
+        delta.addProperty("matchId", matchId);
+        publishLive(topics.subscribersForPublish(TopicRegistry.LOBBY), delta);
+    }
+    
+    // Lobby traffic is only useful live: no seq, nothing held for offline
+    // sessions, and it goes in the background lane
+    private void publishLive(List<String> sessionIds, JsonObject message) {
+        List<WebSocket> online = new ArrayList<>(sessionIds.size());
+        for (String sessionId : sessionIds) {
+            WebSocket connection = sessionConnections.get(sessionId);
+            if (connection == null || !connection.isOpen()) {
+                topics.unsubscribe(TopicRegistry.LOBBY, sessionId);
+                continue;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            online.add(connection);
         }
+        // Serialized and framed once for every subscriber
+        Broadcaster.broadcastBackground(message.toString(), online, null);
     }
     
     // Enhanced pending message system using database
     public void sendPendingMessages(String sessionId) {
+        deliverPending(sessionId, true);
+    }
+    
+    // RetryScheduler callback, fired when the session's next_retry is reached
+    private void retryPendingNotifications(String sessionId) {
+        deliverPending(sessionId, false);
+    }
+    
+    /**
+     * Send a session's undelivered pending_notifications rows. A reconnect
+     * sends all of them at once; a timer-driven retry only sends rows whose
+     * next_retry has been reached. A failed send backs that row off
+     * exponentially and re-arms the session's timer for its next due row.
+     * Drain, ack, backoff and re-arm each have their own try, so a failure in
+     * one phase cannot undo another: rows that went out are always acked.
+     */
+    private void deliverPending(String sessionId, boolean reconnect) {
+        WebSocket connection = sessionConnections.get(sessionId);
+        if (connection == null || !connection.isOpen()) {
+            // Offline sessions are not polled; registerConnection picks them up
+            sessionsWithSpill.add(sessionId);
+            return;
+        }
+        if (reconnect) {
+            pendingRetries.cancel(sessionId);
+        }
+        List<Integer> deliveredIds = new ArrayList<>();
+        boolean complete = true;
+        int failedId = -1;
+        int failedAttempts = 0;
         try (Connection conn = dbManager.getConnection()) {
             PreparedStatement stmt = conn.prepareStatement(
-                "SELECT id, notification_type, data FROM pending_notifications " +
-                "WHERE session_id = ? AND delivered = FALSE ORDER BY created_at"
+                "SELECT id, notification_type, data, attempts FROM pending_notifications " +
+                "WHERE session_id = ? AND delivered = FALSE" +
+                (reconnect ? "" : " AND attempts < max_attempts AND next_retry <= CURRENT_TIMESTAMP") +
+                " ORDER BY created_at"
             );
             stmt.setString(1, sessionId);
             ResultSet rs = stmt.executeQuery();
             
-            List<Integer> deliveredIds = new ArrayList<>();
-            
             while (rs.next()) {
                 int id = rs.getInt("id");
+                String type = rs.getString("notification_type");
                 String data = rs.getString("data");
                 
+                if (!connection.isOpen()) {
+                    complete = false;
+                    break; // Connection lost, stop trying
+                }
                 try {
-                    WebSocket connection = sessionConnections.get(sessionId);
-                    if (connection != null && connection.isOpen()) {
-                        connection.send(data);
-                        deliveredIds.add(id);
-                        System.out.println("Delivered pending message to " + sessionId + ": " + data);
-                    } else {
-                        break; // Connection lost, stop trying
-                    }
+                    sendHeld(sessionId, connection, type, data);
+                    deliveredIds.add(id);
+                    System.out.println("Delivered pending message to " + sessionId + ": " + data);
                 } catch (Exception e) {
-                    System.err.println("Failed to deliver pending message: " + e.getMessage());
+                    failedId = id;
+                    failedAttempts = rs.getInt("attempts");
+                    System.err.println("Failed to deliver pending message to " + sessionId + ", attempt " + (failedAttempts + 1) + ": " + e.getMessage());
+                    complete = false;
                     break;
                 }
             }
-            
-            // Mark delivered messages
-            if (!deliveredIds.isEmpty()) {
-                for (int id : deliveredIds) {
-                    PreparedStatement markDelivered = conn.prepareStatement(
-                        "UPDATE pending_notifications SET delivered = TRUE WHERE id = ?"
-                    );
-                    markDelivered.setInt(1, id);
-                    markDelivered.executeUpdate();
-                }
+        } catch (SQLException e) {
+            // Whatever was sent before the read failed is still acked below
+            System.err.println("Failed to read pending messages for " + sessionId + ": " + e.getMessage());
+            sessionsWithSpill.add(sessionId);
+            complete = false;
+        }
+        
+        // Ack what went out before backing off the row that did not
+        if (!deliveredIds.isEmpty()) {
+            try (Connection conn = dbManager.getConnection()) {
+                markDelivered(conn, deliveredIds);
                 System.out.println("Marked " + deliveredIds.size() + " messages as delivered for " + sessionId);
+            } catch (SQLException e) {
+                System.err.println("Failed to ack pending messages for " + sessionId + ": " + e.getMessage());
+                sessionsWithSpill.add(sessionId);
+            }
+        }
+        if (failedId >= 0) {
+            try (Connection conn = dbManager.getConnection()) {
+                backOff(conn, failedId, failedAttempts);
+            } catch (SQLException e) {
+                System.err.println("Failed to back off pending message " + failedId + ": " + e.getMessage());
+            }
+        }
+        
+        // A timer run may have left rows that are not due yet
+        if (!complete || !reconnect) {
+            try (Connection conn = dbManager.getConnection()) {
+                scheduleNextRetry(conn, sessionId, connection);
+            } catch (SQLException e) {
+                System.err.println("Failed to re-arm pending retry for " + sessionId + ": " + e.getMessage());
+                sessionsWithSpill.add(sessionId);
             }
-            
-        } catch (SQLException e) {
-            System.err.println("Failed to send pending messages: " + e.getMessage());
         }
     }
     
-    // Background task management
-    private void startRetryTask() {
-        retryScheduler.scheduleAtFixedRate(this::retryPendingNotifications, 10, 10, TimeUnit.SECONDS);
+    // Exponential backoff for a row whose send failed; the time is computed
+    // here because H2 cannot bind an INTERVAL length
+    private void backOff(Connection conn, int id, int attempts) throws SQLException {
+        long nextRetrySeconds = 1L << Math.min(attempts + 1, 20);
+        PreparedStatement updateRetry = conn.prepareStatement(
+            "UPDATE pending_notifications SET attempts = attempts + 1, next_retry = ? WHERE id = ?"
+        );
+        updateRetry.setTimestamp(1, Timestamp.from(Instant.now().plusSeconds(nextRetrySeconds)));
+        updateRetry.setInt(2, id);
+        updateRetry.executeUpdate();
     }
     
-    private void startHeartbeatTask() {
-        heartbeatScheduler.scheduleAtFixedRate(this::sendHeartbeats, 30, 30, TimeUnit.SECONDS);
+    // Arm the session's timer for its earliest retryable row, if any
+    private void scheduleNextRetry(Connection conn, String sessionId, WebSocket connection) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(
+            "SELECT MIN(next_retry) FROM pending_notifications " +
+            "WHERE session_id = ? AND delivered = FALSE AND attempts < max_attempts"
+        );
+        stmt.setString(1, sessionId);
+        ResultSet rs = stmt.executeQuery();
+        Timestamp nextRetry = rs.next() ? rs.getTimestamp(1) : null;
+        if (nextRetry == null) {
+            return;
+        }
+        sessionsWithSpill.add(sessionId);
+        if (connection.isOpen()) {
+            pendingRetries.schedule(sessionId, nextRetry.getTime());
+        }
     }
     
-    private void retryPendingNotifications() {
-        try (Connection conn = dbManager.getConnection()) {
-            // H2 uses CURRENT_TIMESTAMP instead of datetime()
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT id, session_id, notification_type, data, attempts " +
-                "FROM pending_notifications " +
-                "WHERE delivered = FALSE AND attempts < max_attempts AND next_retry <= CURRENT_TIMESTAMP"
-            );
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String sessionId = rs.getString("session_id");
-                String data = rs.getString("data");
-                int attempts = rs.getInt("attempts");
-                
-                WebSocket connection = sessionConnections.get(sessionId);
-                if (connection != null && connection.isOpen()) {
-                    try {
-                        connection.send(data);
-                        
-                        // Mark as delivered
-                        PreparedStatement markDelivered = conn.prepareStatement(
-                            "UPDATE pending_notifications SET delivered = TRUE WHERE id = ?"
-                        );
-                        markDelivered.setInt(1, id);
-                        markDelivered.executeUpdate();
-                        
-                        System.out.println("Retry successful for session " + sessionId);
-                        
-                    } catch (Exception e) {
-                        // Update retry count and schedule next retry
-                        int nextRetrySeconds = (int) Math.pow(2, attempts + 1); // Exponential backoff
-                        PreparedStatement updateRetry = conn.prepareStatement(
-                            "UPDATE pending_notifications SET attempts = attempts + 1, " +
-                            "next_retry = CURRENT_TIMESTAMP + INTERVAL ? SECOND WHERE id = ?"
-                        );
-                        updateRetry.setInt(1, nextRetrySeconds);
-                        updateRetry.setInt(2, id);
-                        updateRetry.executeUpdate();
-                        
-                        System.err.println("Retry failed for session " + sessionId + ", attempt " + (attempts + 1));
-                    }
-                } else {
-                    // No connection, schedule for later retry
-                    int nextRetrySeconds = 30; // Wait longer if no connection
-                    PreparedStatement updateRetry = conn.prepareStatement(
-                        "UPDATE pending_notifications SET next_retry = CURRENT_TIMESTAMP + INTERVAL ? SECOND WHERE id = ?"
-                    );
-                    updateRetry.setInt(1, nextRetrySeconds);
-                    updateRetry.setInt(2, id);
-                    updateRetry.executeUpdate();
-                }
+    // Background task management. Each run schedules the next one, so the
+    // period is re-read from ServerConfig and a reload takes effect next cycle.
+    // Retries themselves are timer-driven (RetryScheduler); this only drops
+    // expired messages from memory and touches no tables.
+    private void startOutboxExpiryTask() {
+        scheduleRepeating(outboxScheduler, () -> {
+            outbox.expire();
+            long ttl = ServerConfig.getInstance().get(ServerConfig.NOTIFIER_OUTBOX_TTL_SECONDS) * 1000L;
+            replayLog.expire(ttl, sessionConnections::containsKey);
+            GameStateCache cache = GameStateCache.getInstance();
+            topics.removeStaleMatches(matchId -> cache.getGame(matchId) != null);
+        }, ServerConfig.NOTIFIER_RETRY_INTERVAL_SECONDS);
+    }
+    
+    private void startHeartbeatTask() {
+        // Pings go out one bucket at a time, spread over the heartbeat interval
+        heartbeats.start();
+        // Flush parked frames on drained sockets and drop ones stuck over the limit
+        heartbeatScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                OutboundBackpressure.sweep(sessionConnections.values());
+            } catch (Exception e) {
+                System.err.println("Backpressure sweep failed: " + e.getMessage());
             }
-        } catch (SQLException e) {
-            System.err.println("Retry task failed: " + e.getMessage());
-        }
+        }, 250, 250, TimeUnit.MILLISECONDS);
     }
     
-    private void sendHeartbeats() {
-        for (Map.Entry<String, WebSocket> entry : sessionConnections.entrySet()) {
-            String sessionId = entry.getKey();
-            WebSocket connection = entry.getValue();
-            
-            if (connection.isOpen()) {
-                try {
-                    JsonObject heartbeat = new JsonObject();
-                    heartbeat.addProperty("t", "heartbeat");
-                    heartbeat.addProperty("timestamp", System.currentTimeMillis());
-                    connection.send(heartbeat.toString());
-                    
-                    // Update ping count in database
-                    try (Connection conn = dbManager.getConnection()) {
-                        PreparedStatement stmt = conn.prepareStatement(
-                            "UPDATE connection_health SET last_ping = CURRENT_TIMESTAMP, ping_count = ping_count + 1 " +
-                            "WHERE session_id = ?"
-                        );
-                        stmt.setString(1, sessionId);
-                        stmt.executeUpdate();
-                    }
-                    
-                } catch (Exception e) {
-                    System.err.println("Failed to send heartbeat to " + sessionId + ": " + e.getMessage());
-                    // Mark connection as potentially dead
-                    try (Connection conn = dbManager.getConnection()) {
-                        PreparedStatement stmt = conn.prepareStatement(
-                            "UPDATE connection_health SET missed_pings = missed_pings + 1, " +
-                            "connection_quality = connection_quality * 0.9 WHERE session_id = ?"
-                        );
-                        stmt.setString(1, sessionId);
-                        stmt.executeUpdate();
-                    } catch (SQLException se) {
-                        System.err.println("Failed to update missed ping count: " + se.getMessage());
-                    }
+    private void scheduleRepeating(ScheduledExecutorService scheduler, Runnable task, ServerConfig.Key<Integer> periodKey) {
+        int period = ServerConfig.getInstance().get(periodKey);
+        scheduler.schedule(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("Background task failed: " + e.getMessage());
+            } finally {
+                if (!stopped && !scheduler.isShutdown()) {
+                    scheduleRepeating(scheduler, task, periodKey);
                 }
             }
-        }
+        }, period, TimeUnit.SECONDS);
     }
     
+    // Legacy {"t":"heartbeat_response"} from clients that still answer the JSON heartbeat
     public void handleHeartbeatResponse(String sessionId) {
-        try (Connection conn = dbManager.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "UPDATE connection_health SET last_pong = CURRENT_TIMESTAMP, " +
-                "missed_pings = 0, connection_quality = MIN(1.0, connection_quality + 0.1) " +
-                "WHERE session_id = ?"
-            );
-            stmt.setString(1, sessionId);
-            stmt.executeUpdate();
-            
-            // Update player session heartbeat as well
-            dbManager.updateHeartbeat(sessionId);
-            
-        } catch (SQLException e) {
-            System.err.println("Failed to handle heartbeat response: " + e.getMessage());
-        }
+        LivenessTracker.getInstance().recordPong(sessionId);
     }
     
+    // Called by ExecutorRegistry in the NETWORK phase; the registry then stops
+    // the heartbeat scheduler, and the shared maintenance pool last of all
     public void shutdown() {
-        retryScheduler.shutdown();
-        heartbeatScheduler.shutdown();
+        stopped = true;
+        pendingRetries.shutdown();
+        // Behind the spills still queued, so a late supersede delete cannot
+        // remove the rows written here
+        Future<?> spilled = spillWriter.submit(this::spillOutbox);
         try {
-            if (!retryScheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                retryScheduler.shutdownNow();
+            spilled.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Failed to spill buffered notifications: " + e.getMessage());
+        }
+    }
+    
+    // One statement acknowledges a whole drain
+    private void markDelivered(Connection conn, List<Integer> ids) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(
+            "UPDATE pending_notifications SET delivered = TRUE WHERE id = ANY(?)"
+        );
+        stmt.setArray(1, conn.createArrayOf("INTEGER", ids.toArray()));
+        stmt.executeUpdate();
+    }
+    
+    // Persist everything still buffered so it survives the restart
+    private void spillOutbox() {
+        List<SessionOutbox.Message> remaining = outbox.drainAll();
+        if (remaining.isEmpty()) {
+            return;
+        }
+        try (Connection conn = dbManager.getConnection()) {
+            // Rows spilled earlier that a buffered message supersedes
+            PreparedStatement delete = conn.prepareStatement(
+                "DELETE FROM pending_notifications WHERE session_id = ? AND coalesce_key = ? AND delivered = FALSE"
+            );
+            PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO pending_notifications (session_id, notification_type, data, coalesce_key, attempts, next_retry) " +
+                "VALUES (?, ?, ?, ?, 0, CURRENT_TIMESTAMP + INTERVAL '5' SECOND)"
+            );
+            boolean anyKeyed = false;
+            for (SessionOutbox.Message message : remaining) {
+                if (message.coalesceKey != null && sessionsWithSpill.contains(message.sessionId)) {
+                    delete.setString(1, message.sessionId);
+                    delete.setString(2, message.coalesceKey);
+                    delete.addBatch();
+                    anyKeyed = true;
+                }
+                stmt.setString(1, message.sessionId);
+                stmt.setString(2, message.type);
+                stmt.setString(3, message.data);
+                stmt.setString(4, message.coalesceKey);
+                stmt.addBatch();
             }
-            if (!heartbeatScheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                heartbeatScheduler.shutdownNow();
+            if (anyKeyed) {
+                for (int removed : delete.executeBatch()) {
+                    compactedRows.addAndGet(Math.max(0, removed));
+                }
             }
-        } catch (InterruptedException e) {
-            retryScheduler.shutdownNow();
-            heartbeatScheduler.shutdownNow();
+            stmt.executeBatch();
+            System.out.println("Spilled " + remaining.size() + " buffered notifications to the database");
+        } catch (SQLException e) {
+            System.err.println("Failed to spill buffered notifications: " + e.getMessage());
         }
     }
     
+    public Map<String, Object> getOutboxStats() {
+        Map<String, Object> stats = outbox.getStats();
+        stats.put("compactedInDatabase", compactedRows.get());
+        return stats;
+    }
+    
+    public Map<String, Object> getReplayStats() {
+        return replayLog.getStats();
+    }
+    
+    public Map<String, Object> getTopicStats() {
+        return topics.getStats();
+    }
+    
+    public Map<String, Object> getRetryStats() {
+        return pendingRetries.getStats();
+    }
+    
     // Helper method for Server class to access session connections
     public Map<String, WebSocket> getSessionConnections() {
         return sessionConnections;
     }
+    
+    /**
+     * Heartbeat bucket sizes and sweep timings from the HeartbeatSweeper.
+     */
+    public Map<String, Object> getHeartbeatStats() {
+        return heartbeats.getStats();
+    }
+    
+    /**
+     * Outbound buffer levels and coalescing counters for registered sockets.
+     */
+    public Map<String, Object> getBackpressureStats() {
+        return OutboundBackpressure.getStats(sessionConnections.values());
+    }
+    
+    /**
+     * permessage-deflate byte counters per registered session plus totals.
+     */
+    public Map<String, Object> getCompressionStats() {
+        Map<String, Object> sessions = new LinkedHashMap<>();
+        long raw = 0;
+        long wire = 0;
+        int uncompressedSessions = 0;
+        for (Map.Entry<String, WebSocket> entry : sessionConnections.entrySet()) {
+            ConnectionContext ctx = entry.getValue().getAttachment();
+            MeteredDeflateExtension deflate = ctx != null ? ctx.getDeflate() : null;
+            if (deflate == null) {
+                uncompressedSessions++;
+                continue;
+            }
+            Map<String, Object> connStats = deflate.getStats();
+            raw += (Long) connStats.get("uncompressedBytes");
+            wire += (Long) connStats.get("compressedBytes");
+            sessions.put(entry.getKey(), connStats);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("compressedSessions", sessions.size());
+        stats.put("uncompressedSessions", uncompressedSessions);
+        stats.put("uncompressedBytes", raw);
+        stats.put("compressedBytes", wire);
+        stats.put("ratio", raw > 0 ? String.format("%.2f", (double) wire / raw) : "N/A");
+        stats.put("sessions", sessions);
+        return stats;
+    }
+    
+    /**
+     * Session registry statistics. "leaked" counts registry entries whose
+     * socket is already closed and should stay at zero.
+     */
+    public Map<String, Object> getSessionStats() {
+        int live = 0;
+        int leaked = 0;
+        for (WebSocket connection : sessionConnections.values()) {
+            if (connection.isOpen()) {
+                live++;
+            } else {
+                leaked++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("live", live);
+        stats.put("leaked", leaked);
+        stats.put("registered", totalRegistered.get());
+        stats.put("unregistered", totalUnregistered.get());
+        stats.put("replaced", totalReplaced.get());
+        return stats;
+    }
 }
\ No newline at end of file
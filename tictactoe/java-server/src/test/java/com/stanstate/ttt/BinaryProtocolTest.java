@@ -0,0 +1,157 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryProtocolTest {
+    private static GameStateCache cache;
+
+    @BeforeAll
+    static void setUp() {
+        System.setProperty("ttt.db.url", "jdbc:h2:mem:binary-protocol;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        DatabaseManager.getInstance().initializeDatabase();
+        cache = GameStateCache.getInstance();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        ExecutorRegistry.getInstance().shutdown();
+    }
+
+    // Fields of a STATE/OVER frame, unpacked the way a client does
+    private static final class Decoded {
+        final byte op;
+        final int handle;
+        final int result;
+        final int status;
+        final boolean oNext;
+        final int oMask;
+        final int xMask;
+
+        Decoded(ByteBuffer frame) {
+            ByteBuffer buf = frame.duplicate();
+            assertEquals(8, buf.remaining());
+            op = buf.get();
+            handle = buf.getInt();
+            int packed = (Byte.toUnsignedInt(buf.get()) << 16) | (Byte.toUnsignedInt(buf.get()) << 8) | Byte.toUnsignedInt(buf.get());
+            result = packed >>> 21;
+            status = (packed >>> 19) & 0x3;
+            oNext = (packed & (1 << 18)) != 0;
+            oMask = (packed >>> 9) & 0x1FF;
+            xMask = packed & 0x1FF;
+        }
+    }
+
+    @Test
+    void stateRoundTrips() {
+        int x = Bitboard.bit(0) | Bitboard.bit(4);
+        int o = Bitboard.bit(8);
+        Decoded d = new Decoded(BinaryProtocol.encodeState(0x7F00ABCD, x, o, true, GameStateCache.GameState.ACTIVE, Bitboard.ONGOING));
+        assertEquals(BinaryProtocol.OP_STATE, d.op);
+        assertEquals(0x7F00ABCD, d.handle);
+        assertEquals(x, d.xMask);
+        assertEquals(o, d.oMask);
+        assertTrue(d.oNext);
+        assertEquals(GameStateCache.GameState.ACTIVE, d.status);
+        assertEquals(Bitboard.ONGOING, d.result);
+    }
+
+    @Test
+    void finishedStateIsAnOverFrame() {
+        Decoded d = new Decoded(BinaryProtocol.encodeState(-2, Bitboard.FULL & ~0b111, 0b111,
+            false, GameStateCache.GameState.FINISHED, 5));
+        assertEquals(BinaryProtocol.OP_OVER, d.op);
+        assertEquals(-2, d.handle, "handles use all 32 bits");
+        assertEquals(0b111, d.oMask);
+        assertEquals(Bitboard.FULL & ~0b111, d.xMask);
+        assertFalse(d.oNext);
+        assertEquals(GameStateCache.GameState.FINISHED, d.status);
+        assertEquals(5, d.result, "forfeit codes fit in the result bits");
+    }
+
+    @Test
+    void matchAndRejectedRoundTrip() {
+        ByteBuffer match = BinaryProtocol.encodeMatch(42, 2, "m-\u00e9");
+        assertEquals(BinaryProtocol.OP_MATCH, match.get());
+        assertEquals(42, match.getInt());
+        assertEquals(2, match.get());
+        assertEquals("m-\u00e9", StandardCharsets.UTF_8.decode(match).toString());
+
+        ByteBuffer rejected = BinaryProtocol.encodeRejected(42, 8);
+        assertEquals(6, rejected.remaining());
+        assertEquals(BinaryProtocol.OP_REJECTED, rejected.get());
+        assertEquals(42, rejected.getInt());
+        assertEquals(8, rejected.get());
+    }
+
+    @Test
+    void jsonFramesConvertToTheLiveBinaryFrames() {
+        String x = "x-" + UUID.randomUUID();
+        String o = "o-" + UUID.randomUUID();
+        String matchId = "match-" + UUID.randomUUID();
+        cache.createGame(matchId, x, o, "X", "O");
+        GameStateCache.GameState game = cache.getGame(matchId);
+
+        int[] cells = {4, 0, 8, 2};
+        for (int i = 0; i < cells.length; i++) {
+            cache.tryMove(matchId, cells[i], i % 2 == 0 ? x : o, -1);
+        }
+        assertEquals(live(game.state(), game.handle), BinaryProtocol.fromJson(json(game)));
+
+        cache.tryMove(matchId, 1, x, -1);
+        cache.tryMove(matchId, 6, o, -1);
+        cache.tryMove(matchId, 7, x, -1); // X completes the middle column
+        assertTrue(game.isFinished());
+        assertEquals(live(game.state(), game.handle), BinaryProtocol.fromJson(json(game)));
+
+        JsonObject match = new JsonObject();
+        match.addProperty("t", "match");
+        match.addProperty("match", matchId);
+        match.addProperty("seat", 2);
+        match.addProperty("seq", 99);
+        assertEquals(BinaryProtocol.encodeMatch(game.handle, 2, matchId), BinaryProtocol.fromJson(match.toString()));
+    }
+
+    @Test
+    void framesWithoutABinaryFormStayJson() {
+        assertNull(BinaryProtocol.fromJson("{\"t\":\"snapshot\",\"match\":\"m\"}"));
+        assertNull(BinaryProtocol.fromJson("{\"t\":\"state\",\"match\":\"no-such-match\",\"board\":\".........\"}"));
+        assertNull(BinaryProtocol.fromJson("{\"t\":\"waiting\"}"));
+        assertNull(BinaryProtocol.fromJson("not json"));
+    }
+
+    // Built the way WebSocketNotifier.notifyMatchState builds them
+    private static ByteBuffer live(long packed, int handle) {
+        return BinaryProtocol.encodeState(handle,
+            GameStateCache.GameState.xMaskOf(packed), GameStateCache.GameState.oMaskOf(packed),
+            !GameStateCache.GameState.xToMoveOf(packed), GameStateCache.GameState.statusOf(packed),
+            GameStateCache.GameState.outcomeOf(packed));
+    }
+
+    private static String json(GameStateCache.GameState game) {
+        long packed = game.state();
+        JsonObject state = new JsonObject();
+        boolean finished = GameStateCache.GameState.statusOf(packed) == GameStateCache.GameState.FINISHED;
+        state.addProperty("t", finished ? "over" : "state");
+        state.addProperty("match", game.matchId);
+        state.addProperty("board", GameStateCache.GameState.boardOf(packed));
+        if (!finished) {
+            state.addProperty("next", GameStateCache.GameState.currentPlayerOf(packed));
+            state.addProperty("status", GameStateCache.GameState.statusNameOf(packed));
+        }
+        state.addProperty("result", GameStateCache.GameState.resultOf(packed));
+        state.addProperty("version", GameStateCache.GameState.versionOf(packed));
+        state.addProperty("seq", 12345);
+        return state.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package com.stanstate.ttt;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class BitboardTest {
+    private static final int[][] LINES = {
+        {0, 1, 2}, {3, 4, 5}, {6, 7, 8},
+        {0, 3, 6}, {1, 4, 7}, {2, 5, 8},
+        {0, 4, 8}, {2, 4, 6}
+    };
+
+    private static int mask(String board, char mark) {
+        int mask = 0;
+        for (int i = 0; i < 9; i++) {
+            if (board.charAt(i) == mark) {
+                mask |= Bitboard.bit(i);
+            }
+        }
+        return mask;
+    }
+
+    private static int outcome(String board) {
+        return Bitboard.outcome(mask(board, 'X'), mask(board, 'O'));
+    }
+
+    private static boolean hasLine(int mask) {
+        for (int[] line : LINES) {
+            int lineMask = Bitboard.bit(line[0]) | Bitboard.bit(line[1]) | Bitboard.bit(line[2]);
+            if ((mask & lineMask) == lineMask) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Legal without replaying games: counts alternate, at most one winner,
+    // and the winner's last mark is one whose removal leaves no line
+    private static int expected(int x, int o) {
+        if ((x & o) != 0) {
+            return Bitboard.UNREACHABLE;
+        }
+        int diff = Integer.bitCount(x) - Integer.bitCount(o);
+        boolean xLine = hasLine(x);
+        boolean oLine = hasLine(o);
+        if (diff < 0 || diff > 1 || (xLine && oLine)) {
+            return Bitboard.UNREACHABLE;
+        }
+        if (xLine || oLine) {
+            int winner = xLine ? x : o;
+            if (xLine != (diff == 1)) {
+                return Bitboard.UNREACHABLE;
+            }
+            for (int rest = winner; rest != 0; rest &= rest - 1) {
+                if (!hasLine(winner & ~(rest & -rest))) {
+                    return xLine ? Bitboard.X_WINS : Bitboard.O_WINS;
+                }
+            }
+            return Bitboard.UNREACHABLE;
+        }
+        return (x | o) == Bitboard.FULL ? Bitboard.DRAW : Bitboard.ONGOING;
+    }
+
+    @Test
+    void tableMatchesEveryPosition() {
+        int reachable = 0;
+        for (int x = 0; x <= Bitboard.FULL; x++) {
+            for (int o = 0; o <= Bitboard.FULL; o++) {
+                int want = expected(x, o);
+                if (want != Bitboard.outcome(x, o)) {
+                    fail("x=" + Integer.toBinaryString(x) + " o=" + Integer.toBinaryString(o) +
+                         ": expected " + want + ", table has " + Bitboard.outcome(x, o));
+                }
+                if (want != Bitboard.UNREACHABLE) {
+                    reachable++;
+                }
+            }
+        }
+        assertEquals(5478, reachable);
+        assertEquals(5478, Bitboard.reachablePositions());
+    }
+
+    @Test
+    void knownPositions() {
+        assertEquals(Bitboard.ONGOING, outcome("........."));
+        assertEquals(Bitboard.X_WINS, outcome("XXXOO...."));
+        assertEquals(Bitboard.O_WINS, outcome("X.XOOOX.."));
+        assertEquals(Bitboard.X_WINS, outcome("XOXOXOOXX"), "win on the ninth mark is a win, not a draw");
+        assertEquals(Bitboard.DRAW, outcome("XOXXOOOXX"));
+        assertEquals(Bitboard.UNREACHABLE, outcome("XXX......"), "X cannot move three times in a row");
+        assertEquals(Bitboard.UNREACHABLE, outcome("XXXOOO..."), "play stops at the first win");
+    }
+
+    @Test
+    void renderAndTurn() {
+        int x = mask("X...O...X", 'X');
+        int o = mask("X...O...X", 'O');
+        assertEquals("X...O...X", Bitboard.render(x, o));
+        assertFalse(Bitboard.xToMove(x, o));
+        assertTrue(Bitboard.xToMove(x, o | Bitboard.bit(1)));
+        assertEquals("X_wins", Bitboard.resultName(Bitboard.X_WINS));
+        assertEquals("ongoing", Bitboard.resultName(Bitboard.UNREACHABLE));
+    }
+}
@@ -0,0 +1,100 @@
+package com.stanstate.ttt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class CompletedMatchWriterTest {
+    private static CompletedMatchWriter writer;
+
+    @BeforeAll
+    static void setUp() {
+        System.setProperty("ttt.db.url", "jdbc:h2:mem:completed-match-writer;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        // Give up on a failing batch after one attempt so the test splits it at once
+        System.setProperty("ttt.matchWriter.maxRetries", "1");
+        DatabaseManager.getInstance().initializeDatabase();
+        writer = CompletedMatchWriter.getInstance();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        ExecutorRegistry.getInstance().shutdown();
+    }
+
+    private static String id(String prefix) {
+        return prefix + "-" + UUID.randomUUID();
+    }
+
+    // X took the top row in five moves
+    private static long xWon() {
+        return GameStateCache.GameState.pack(0b000000111, 0b000011000,
+            GameStateCache.GameState.FINISHED, Bitboard.X_WINS, 6);
+    }
+
+    private static boolean persisted(String matchId) throws Exception {
+        try (Connection conn = DatabaseManager.getInstance().getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement("SELECT result FROM game_matches WHERE match_id = ?");
+            stmt.setString(1, matchId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static Map<String, Object> awaitSettled(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, Object> stats = writer.getStats();
+            long settled = (Long) stats.get("written") + (Long) stats.get("deadLettered");
+            if (settled >= expected) {
+                return stats;
+            }
+            Thread.sleep(20);
+        }
+        fail("match writer did not settle: " + writer.getStats());
+        return null;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void badRowIsDeadLetteredAndTheRestAreWritten() throws Exception {
+        List<String> good = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            String matchId = id("match");
+            good.add(matchId);
+            writer.enqueue(new GameStateCache.GameState(matchId, id("x"), id("o"), "X" + i, "O" + i), xWon());
+            if (i == 2) {
+                // player_sessions.player_name is NOT NULL, so this row fails on its own
+                String bad = id("bad");
+                writer.enqueue(new GameStateCache.GameState(bad, id("x"), id("o"), null, "O"), xWon());
+            }
+        }
+
+        Map<String, Object> stats = awaitSettled(7);
+        assertEquals(6L, stats.get("written"));
+        assertEquals(1L, stats.get("deadLettered"));
+        assertTrue((Long) stats.get("isolatedBatches") >= 1);
+        for (String matchId : good) {
+            assertTrue(persisted(matchId), matchId + " written despite the bad row");
+        }
+
+        List<Map<String, Object>> dead = (List<Map<String, Object>>) stats.get("recentDeadLetters");
+        assertEquals(1, dead.size());
+        String badId = (String) dead.get(0).get("matchId");
+        assertTrue(badId.startsWith("bad-"));
+        assertEquals("X_wins", dead.get(0).get("result"));
+        assertFalse(persisted(badId), "a dead-lettered match is not persisted");
+    }
+}
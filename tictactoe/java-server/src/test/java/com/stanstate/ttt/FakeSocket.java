@@ -0,0 +1,96 @@
+package com.stanstate.ttt;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+import javax.net.ssl.SSLSession;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * Socket for notifier tests: records text frames instead of writing them,
+ * and can be made to fail on chosen frames.
+ */
+class FakeSocket implements WebSocket {
+    final List<String> sent = new CopyOnWriteArrayList<>();
+    final List<ByteBuffer> sentBinary = new CopyOnWriteArrayList<>();
+    volatile boolean open = true;
+    // Frames matching this throw as if the socket had closed under the write
+    volatile Predicate<String> failOn = text -> false;
+    private Object attachment;
+
+    @Override
+    public void send(String text) {
+        if (!open || failOn.test(text)) {
+            throw new WebsocketNotConnectedException();
+        }
+        sent.add(text);
+    }
+
+    @Override
+    public void send(ByteBuffer bytes) {
+        if (!open) {
+            throw new WebsocketNotConnectedException();
+        }
+        sentBinary.add(bytes);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !open;
+    }
+
+    @Override
+    public Draft getDraft() {
+        return new Draft_6455();
+    }
+
+    @Override
+    public ReadyState getReadyState() {
+        return open ? ReadyState.OPEN : ReadyState.CLOSED;
+    }
+
+    @Override
+    public <T> void setAttachment(T attachment) {
+        this.attachment = attachment;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+
+    @Override public void close(int code, String message) { open = false; }
+    @Override public void close(int code) { open = false; }
+    @Override public void close() { open = false; }
+    @Override public void closeConnection(int code, String message) { open = false; }
+    @Override public void send(byte[] bytes) { send(ByteBuffer.wrap(bytes)); }
+    @Override public void sendFrame(Framedata framedata) { throw new UnsupportedOperationException(); }
+    @Override public void sendFrame(Collection<Framedata> frames) { throw new UnsupportedOperationException(); }
+    @Override public void sendPing() {}
+    @Override public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean fin) { throw new UnsupportedOperationException(); }
+    @Override public boolean hasBufferedData() { return false; }
+    @Override public InetSocketAddress getRemoteSocketAddress() { return null; }
+    @Override public InetSocketAddress getLocalSocketAddress() { return null; }
+    @Override public boolean isClosing() { return false; }
+    @Override public boolean isFlushAndClose() { return false; }
+    @Override public String getResourceDescriptor() { return "/"; }
+    @Override public boolean hasSSLSupport() { return false; }
+    @Override public SSLSession getSSLSession() { throw new IllegalArgumentException("no SSL"); }
+    @Override public IProtocol getProtocol() { return null; }
+}
@@ -0,0 +1,226 @@
+package com.stanstate.ttt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameStateCacheTest {
+    private static GameStateCache cache;
+
+    @BeforeAll
+    static void setUp() {
+        System.setProperty("ttt.db.url", "jdbc:h2:mem:game-state-cache;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        DatabaseManager.getInstance().initializeDatabase();
+        cache = GameStateCache.getInstance();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        ExecutorRegistry.getInstance().shutdown();
+    }
+
+    private static String id(String prefix) {
+        return prefix + "-" + UUID.randomUUID();
+    }
+
+    private static GameStateCache.GameState activeGame(String x, String o) {
+        String matchId = id("match");
+        cache.createGame(matchId, x, o, "X", "O");
+        return cache.getGame(matchId);
+    }
+
+    @Test
+    void movesBumpTheVersionAndAreValidated() {
+        String x = id("x");
+        String o = id("o");
+        GameStateCache.GameState game = activeGame(x, o);
+        long v0 = game.version();
+
+        assertEquals(GameStateCache.MoveResult.APPLIED, cache.tryMove(game.matchId, 4, x, v0));
+        assertEquals(v0 + 1, game.version());
+        assertEquals("....X....", game.board());
+        assertEquals(GameStateCache.MoveResult.NOT_YOUR_TURN, cache.tryMove(game.matchId, 0, x, -1));
+        assertEquals(GameStateCache.MoveResult.OCCUPIED, cache.tryMove(game.matchId, 4, o, -1));
+        assertEquals(GameStateCache.MoveResult.INVALID_CELL, cache.tryMove(game.matchId, 9, o, -1));
+        assertEquals(GameStateCache.MoveResult.NO_MATCH, cache.tryMove(id("missing"), 0, o, -1));
+        assertEquals(v0 + 1, game.version(), "rejected moves leave the version alone");
+    }
+
+    @Test
+    void staleVersionIsAConflict() {
+        String x = id("x");
+        String o = id("o");
+        GameStateCache.GameState game = activeGame(x, o);
+        long v0 = game.version();
+        assertEquals(GameStateCache.MoveResult.APPLIED, cache.tryMove(game.matchId, 0, x, v0));
+
+        assertEquals(GameStateCache.MoveResult.VERSION_CONFLICT, cache.tryMove(game.matchId, 1, o, v0));
+        assertEquals("X........", game.board());
+        assertEquals(GameStateCache.MoveResult.APPLIED, cache.tryMove(game.matchId, 1, o, v0 + 1));
+    }
+
+    @Test
+    void finishingMoveEndsTheMatch() {
+        String x = id("x");
+        String o = id("o");
+        GameStateCache.GameState game = activeGame(x, o);
+        int[] cells = {0, 3, 1, 4, 2};
+        for (int i = 0; i < cells.length; i++) {
+            assertEquals(GameStateCache.MoveResult.APPLIED, cache.tryMove(game.matchId, cells[i], i % 2 == 0 ? x : o, -1));
+        }
+        assertTrue(game.isFinished());
+        assertEquals("X_wins", game.result());
+        assertEquals(GameStateCache.MoveResult.NOT_ACTIVE, cache.tryMove(game.matchId, 5, o, -1));
+    }
+
+    @Test
+    void racingMovesOnOneVersionApplyOnce() throws Exception {
+        String x = id("x");
+        String o = id("o");
+        GameStateCache.GameState game = activeGame(x, o);
+        long v0 = game.version();
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<GameStateCache.MoveResult>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int cell = i;
+            results.add(pool.submit(() -> {
+                start.await();
+                return cache.tryMove(game.matchId, cell, x, v0);
+            }));
+        }
+        start.countDown();
+        int applied = 0;
+        for (Future<GameStateCache.MoveResult> result : results) {
+            GameStateCache.MoveResult r = result.get();
+            if (r == GameStateCache.MoveResult.APPLIED) {
+                applied++;
+            } else {
+                assertEquals(GameStateCache.MoveResult.VERSION_CONFLICT, r);
+            }
+        }
+        pool.shutdown();
+
+        assertEquals(1, applied);
+        assertEquals(v0 + 1, game.version());
+        assertEquals(1, game.board().chars().filter(c -> c == 'X').count());
+    }
+
+    @Test
+    void racingUnversionedMovesRevalidate() throws Exception {
+        String x = id("x");
+        String o = id("o");
+        GameStateCache.GameState game = activeGame(x, o);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<GameStateCache.MoveResult>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return cache.tryMove(game.matchId, 4, x, -1);
+            }));
+        }
+        start.countDown();
+        int applied = 0;
+        for (Future<GameStateCache.MoveResult> result : results) {
+            GameStateCache.MoveResult r = result.get();
+            if (r == GameStateCache.MoveResult.APPLIED) {
+                applied++;
+            } else {
+                assertFalse(r == GameStateCache.MoveResult.VERSION_CONFLICT, "unversioned moves never conflict");
+            }
+        }
+        pool.shutdown();
+
+        assertEquals(1, applied, "a double-submitted move lands once");
+        assertEquals("....X....", game.board());
+    }
+
+    @Test
+    void openMatchesPageByCursor() throws InterruptedException {
+        // Matches from other tests are older than this
+        Thread.sleep(2);
+        long since = System.currentTimeMillis();
+        Thread.sleep(2);
+        List<String> created = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String matchId = id("lobby");
+            cache.createGameWaiting(matchId, id("host"), "Host " + i);
+            created.add(matchId);
+        }
+
+        GameStateCache.LobbyPage first = cache.getOpenMatches(-1, since, 2);
+        assertEquals(created.subList(0, 2), matchIds(first));
+        assertTrue(first.nextCursor >= 0);
+
+        // Joined between pages: no longer open, so the next page skips it
+        assertTrue(cache.joinGame(cache.getGame(created.get(2)), id("guest"), "Guest"));
+        GameStateCache.LobbyPage second = cache.getOpenMatches(first.nextCursor, since, 2);
+        assertEquals(List.of(created.get(3), created.get(4)), matchIds(second));
+        assertEquals(-1, second.nextCursor, "nothing after the last page");
+
+        GameStateCache.LobbyPage all = cache.getOpenMatches(-1, since, 10);
+        assertEquals(List.of(created.get(0), created.get(1), created.get(3), created.get(4)), matchIds(all));
+        assertEquals(-1, all.nextCursor);
+    }
+
+    @Test
+    void cursorPastTheEndIsEmpty() {
+        String matchId = id("lobby");
+        cache.createGameWaiting(matchId, id("host"), "Host");
+        long last = cache.getGame(matchId).lobbyKey;
+
+        GameStateCache.LobbyPage page = cache.getOpenMatches(last, -1, 10);
+        assertTrue(page.matches.isEmpty());
+        assertEquals(-1, page.nextCursor);
+    }
+
+    private static List<String> matchIds(GameStateCache.LobbyPage page) {
+        List<String> ids = new ArrayList<>();
+        for (GameStateCache.GameState game : page.matches) {
+            ids.add(game.matchId);
+        }
+        return ids;
+    }
+
+    @Test
+    void hostWithoutCachedSessionStillClosesItsWaitingMatch() {
+        String host = id("host");
+        String matchId = id("match");
+        cache.createGameWaiting(matchId, host, "Host");
+        GameStateCache.GameState game = cache.getGame(matchId);
+
+        assertSame(game, cache.markSessionDisconnected(host));
+        assertEquals(GameStateCache.GameState.CLOSED, GameStateCache.GameState.statusOf(game.state()));
+        assertNull(cache.getGame(matchId));
+        assertTrue(cache.getWaitingGames().stream().noneMatch(g -> g.matchId.equals(matchId)));
+    }
+
+    @Test
+    void joinedMatchSurvivesHostDisconnect() {
+        String host = id("host");
+        String matchId = id("match");
+        cache.createGameWaiting(matchId, host, "Host");
+        GameStateCache.GameState game = cache.getGame(matchId);
+        assertTrue(cache.joinGame(game, id("guest"), "Guest"));
+
+        assertNull(cache.markSessionDisconnected(host));
+        assertTrue(game.isActive());
+        assertSame(game, cache.getGame(matchId));
+    }
+}
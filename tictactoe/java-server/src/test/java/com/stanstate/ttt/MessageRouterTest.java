@@ -0,0 +1,72 @@
+package com.stanstate.ttt;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageRouterTest {
+    private MessageRouter router;
+    private final List<ClientMessages.Move> moves = new ArrayList<>();
+    private final List<ClientMessages.Register> registers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        router = new MessageRouter();
+        router.register("move", ClientMessages.Move.class, (conn, msg) -> moves.add(msg));
+        router.registerDefault(ClientMessages.Register.class, (conn, msg) -> registers.add(msg));
+    }
+
+    @Test
+    void bindsPayloadOfTheRoutedType() throws Exception {
+        assertTrue(router.dispatch(null, "{\"matchId\":\"m1\",\"cell\":4,\"expectedVersion\":7,\"t\":\"move\"}"));
+
+        assertEquals(1, moves.size());
+        ClientMessages.Move move = moves.get(0);
+        assertEquals("m1", move.matchId);
+        assertEquals(4, move.cell);
+        assertEquals(7L, move.expectedVersion);
+        assertNull(move.sessionId);
+        assertTrue(registers.isEmpty());
+    }
+
+    @Test
+    void framesWithoutAKnownTypeUseTheDefaultRoute() throws Exception {
+        assertTrue(router.dispatch(null, "{\"sessionId\":\"s1\",\"lastSeq\":\"1792191435409\"}"));
+        assertTrue(router.dispatch(null, "{\"t\":\"unknown\",\"sessionId\":\"s2\"}"));
+
+        assertEquals(2, registers.size());
+        assertEquals("s1", registers.get(0).sessionId);
+        assertEquals(1792191435409L, registers.get(0).lastSeq, "seq sent as a string still binds");
+        assertEquals("s2", registers.get(1).sessionId);
+    }
+
+    @Test
+    void nestedTypeFieldIsNotTheRoute() throws Exception {
+        assertTrue(router.dispatch(null, "{\"sessionId\":\"s1\",\"extra\":{\"t\":\"move\"}}"));
+        assertTrue(moves.isEmpty());
+        assertEquals(1, registers.size());
+    }
+
+    @Test
+    void plainTextIsNotRouted() throws Exception {
+        assertFalse(router.dispatch(null, "hello"));
+        assertFalse(router.dispatch(null, "[1,2]"));
+        assertFalse(new MessageRouter().dispatch(null, "{\"t\":\"move\"}"), "no route and no default");
+    }
+
+    @Test
+    void malformedFramesAreRejected() {
+        assertThrows(MessageRouter.MalformedMessageException.class, () -> router.dispatch(null, "{\"t\":"));
+        assertThrows(MessageRouter.MalformedMessageException.class, () -> router.dispatch(null, "{\"t\":5}"));
+        assertThrows(MessageRouter.MalformedMessageException.class,
+            () -> router.dispatch(null, "{\"t\":\"move\",\"cell\":\"four\"}"));
+        assertTrue(moves.isEmpty());
+    }
+}
@@ -0,0 +1,60 @@
+package com.stanstate.ttt;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketListener;
+import org.java_websocket.drafts.Draft_6455;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundBackpressureTest {
+    private final List<String> written = new CopyOnWriteArrayList<>();
+
+    @BeforeAll
+    static void setUp() {
+        System.setProperty("ttt.ws.outboundHighWaterBytes", "1024");
+    }
+
+    @Test
+    void unkeyedFramesQueueBehindParkedState() {
+        WebSocketImpl conn = socket();
+        conn.outQueue.add(ByteBuffer.allocate(2048));
+
+        assertFalse(OutboundBackpressure.send(conn, "m1", write("state 5")));
+        assertFalse(OutboundBackpressure.send(conn, null, write("match_start 6")), "must wait behind the parked state");
+        assertFalse(OutboundBackpressure.send(conn, "m1", write("state 7")));
+        assertTrue(written.isEmpty());
+
+        conn.outQueue.clear();
+        assertTrue(OutboundBackpressure.send(conn, null, write("move_rejected 8")));
+        assertEquals(List.of("match_start 6", "state 7", "move_rejected 8"), written);
+    }
+
+    @Test
+    void unkeyedFrameGoesStraightOutWhenNothingIsParked() {
+        WebSocketImpl conn = socket();
+        conn.outQueue.add(ByteBuffer.allocate(2048));
+
+        assertTrue(OutboundBackpressure.send(conn, null, write("match_start 1")));
+        assertEquals(List.of("match_start 1"), written);
+    }
+
+    private Runnable write(String frame) {
+        return () -> written.add(frame);
+    }
+
+    // A real socket, so bufferedBytes reads its out queue; never connected
+    private static WebSocketImpl socket() {
+        WebSocketListener listener = (WebSocketListener) Proxy.newProxyInstance(
+            WebSocketListener.class.getClassLoader(), new Class<?>[] { WebSocketListener.class },
+            (proxy, method, args) -> null);
+        return new WebSocketImpl(listener, new Draft_6455());
+    }
+}
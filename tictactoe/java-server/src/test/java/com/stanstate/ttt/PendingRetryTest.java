@@ -0,0 +1,140 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingRetryTest {
+    private static DatabaseManager db;
+    private static WebSocketNotifier notifier;
+
+    @BeforeAll
+    static void setUp() {
+        System.setProperty("ttt.db.url", "jdbc:h2:mem:pending-retry;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        db = DatabaseManager.getInstance();
+        db.initializeDatabase();
+        notifier = WebSocketNotifier.getInstance();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        ExecutorRegistry.getInstance().shutdown();
+    }
+
+    @Test
+    void failedSendBacksOffAndAcksWhatWentOut() throws SQLException {
+        String sessionId = "retry-session";
+        addSession(sessionId);
+        int first = addPending(sessionId, "m1", 3);
+        int poisoned = addPending(sessionId, "poison", 2);
+        int last = addPending(sessionId, "m3", 1);
+
+        FakeSocket socket = new FakeSocket();
+        socket.failOn = text -> text.contains("poison");
+        notifier.registerConnection(sessionId, socket, null);
+        long before = System.currentTimeMillis();
+        notifier.sendPendingMessages(sessionId);
+
+        assertTrue(isDelivered(first), "row sent before the failure is acked");
+        assertFalse(isDelivered(poisoned));
+        assertFalse(isDelivered(last), "the drain stops at the failed row");
+        assertEquals(1, attempts(poisoned));
+        assertTrue(nextRetry(poisoned).getTime() >= before + 1000, "failed row is backed off");
+        assertEquals(0, attempts(last));
+    }
+
+    @Test
+    void ackedRowsAreNotRedelivered() throws SQLException {
+        String sessionId = "redeliver-session";
+        addSession(sessionId);
+        int first = addPending(sessionId, "r1", 3);
+        int poisoned = addPending(sessionId, "poison", 2);
+        int last = addPending(sessionId, "r3", 1);
+
+        FakeSocket socket = new FakeSocket();
+        socket.failOn = text -> text.contains("poison");
+        notifier.registerConnection(sessionId, socket, null);
+        notifier.sendPendingMessages(sessionId);
+        socket.failOn = text -> false;
+        socket.sent.clear();
+        notifier.sendPendingMessages(sessionId);
+
+        assertEquals(0, count(socket, "r1"), "acked row was sent again");
+        assertEquals(1, count(socket, "poison"));
+        assertEquals(1, count(socket, "r3"));
+        assertTrue(isDelivered(first) && isDelivered(poisoned) && isDelivered(last));
+    }
+
+    private static long count(FakeSocket socket, String matchId) {
+        return socket.sent.stream().filter(text -> text.contains("\"" + matchId + "\"")).count();
+    }
+
+    private static void addSession(String sessionId) throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO player_sessions (session_id, player_name) VALUES (?, ?)");
+            stmt.setString(1, sessionId);
+            stmt.setString(2, "player");
+            stmt.executeUpdate();
+        }
+    }
+
+    // Rows are not due for an hour, so only the reconnect drain picks them
+    // up and the retry timer cannot race the assertions
+    private static int addPending(String sessionId, String matchId, int secondsAgo) throws SQLException {
+        JsonObject state = new JsonObject();
+        state.addProperty("t", "state");
+        state.addProperty("match", matchId);
+        try (Connection conn = db.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO pending_notifications (session_id, notification_type, data, created_at, next_retry) VALUES (?, ?, ?, ?, ?)",
+                PreparedStatement.RETURN_GENERATED_KEYS);
+            stmt.setString(1, sessionId);
+            stmt.setString(2, "state");
+            stmt.setString(3, state.toString());
+            stmt.setTimestamp(4, new Timestamp(System.currentTimeMillis() - secondsAgo * 1000L));
+            stmt.setTimestamp(5, new Timestamp(System.currentTimeMillis() + 3600_000L));
+            stmt.executeUpdate();
+            ResultSet keys = stmt.getGeneratedKeys();
+            keys.next();
+            return keys.getInt(1);
+        }
+    }
+
+    private static ResultSet row(Connection conn, int id) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(
+            "SELECT delivered, attempts, next_retry FROM pending_notifications WHERE id = ?");
+        stmt.setInt(1, id);
+        ResultSet rs = stmt.executeQuery();
+        assertTrue(rs.next());
+        return rs;
+    }
+
+    private static boolean isDelivered(int id) throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            return row(conn, id).getBoolean("delivered");
+        }
+    }
+
+    private static int attempts(int id) throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            return row(conn, id).getInt("attempts");
+        }
+    }
+
+    private static Timestamp nextRetry(int id) throws SQLException {
+        try (Connection conn = db.getConnection()) {
+            return row(conn, id).getTimestamp("next_retry");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.stanstate.ttt;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebSocketNotifierResumeTest {
+    private static WebSocketNotifier notifier;
+
+    @BeforeAll
+    static void setUp() {
+        System.setProperty("ttt.db.url", "jdbc:h2:mem:notifier-resume;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        // One background token, refilled slowly, so the second background frame has to queue
+        System.setProperty("ttt.ws.backgroundBurst", "1");
+        System.setProperty("ttt.ws.backgroundRatePerSecond", "1");
+        DatabaseManager.getInstance().initializeDatabase();
+        notifier = WebSocketNotifier.getInstance();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        ExecutorRegistry.getInstance().shutdown();
+    }
+
+    @Test
+    void backgroundFrameQueuedAtDropIsDeliveredOnResume() {
+        String sessionId = "resume-session";
+        FakeSocket first = new FakeSocket();
+        notifier.registerConnection(sessionId, first, null);
+        // connection_confirmed took the only token
+
+        notifier.sendToSession(sessionId, message("waiting", "Waiting for an opponent"));
+        notifier.sendToSession(sessionId, state("m1"));
+
+        assertNull(find(first.sent, "waiting"), "waiting should still be queued behind the rate limit");
+        JsonObject state = find(first.sent, "state");
+        assertNotNull(state, "gameplay frame should overtake the queued background frame");
+        long lastSeq = state.get("seq").getAsLong();
+
+        first.open = false;
+        notifier.unregisterConnection(first);
+
+        FakeSocket second = new FakeSocket();
+        notifier.registerConnection(sessionId, second, lastSeq);
+
+        JsonObject waiting = find(second.sent, "waiting");
+        assertNotNull(waiting, "the frame queued when the socket dropped should arrive after resume");
+        assertFalse(waiting.has("seq"), "background frames are not sequenced");
+        assertNull(find(second.sent, "snapshot"), "the replay log still covers lastSeq");
+        assertNull(find(second.sent, "state"), "nothing after lastSeq to replay");
+    }
+
+    @Test
+    void gameplaySeqsStayContiguous() {
+        String sessionId = "seq-session";
+        FakeSocket socket = new FakeSocket();
+        notifier.registerConnection(sessionId, socket, null);
+
+        notifier.sendToSession(sessionId, message("waiting", "one"));
+        notifier.sendToSession(sessionId, state("m2"));
+        notifier.sendToSession(sessionId, message("waiting", "two"));
+        notifier.sendToSession(sessionId, state("m3"));
+
+        long previous = -1;
+        for (String text : socket.sent) {
+            JsonObject frame = JsonParser.parseString(text).getAsJsonObject();
+            if (!frame.has("seq")) {
+                continue;
+            }
+            long seq = frame.get("seq").getAsLong();
+            if (previous >= 0) {
+                assertEquals(previous + 1, seq);
+            }
+            previous = seq;
+        }
+        assertTrue(previous >= 0);
+        notifier.unregisterConnection(socket);
+    }
+
+    private static JsonObject message(String type, String text) {
+        JsonObject message = new JsonObject();
+        message.addProperty("t", type);
+        message.addProperty("message", text);
+        return message;
+    }
+
+    private static JsonObject state(String matchId) {
+        JsonObject message = new JsonObject();
+        message.addProperty("t", "state");
+        message.addProperty("match", matchId);
+        message.addProperty("board", ".........");
+        return message;
+    }
+
+    private static JsonObject find(List<String> frames, String type) {
+        for (String text : frames) {
+            JsonObject frame = JsonParser.parseString(text).getAsJsonObject();
+            if (frame.has("t") && type.equals(frame.get("t").getAsString())) {
+                return frame;
+            }
+        }
+        return null;
+    }
+}